@@ -0,0 +1,80 @@
+package cx.ksg.notificationserver.config;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+
+/**
+ * Client for the S3 compatible image store, only created when
+ * notification.image.store.type is s3.
+ * 
+ * An endpoint override and path-style access allow pointing it at a local
+ * stand-in such as MinIO. Without an access key the default AWS credential
+ * chain (environment, instance profile, ...) is used.
+ */
+@Configuration
+@ConditionalOnProperty(name = "notification.image.store.type", havingValue = "s3")
+public class ImageStoreConfig {
+
+    @Value("${notification.image.store.s3.endpoint:}")
+    private String endpoint;
+
+    @Value("${notification.image.store.s3.region:us-east-1}")
+    private String region;
+
+    @Value("${notification.image.store.s3.access-key:}")
+    private String accessKey;
+
+    @Value("${notification.image.store.s3.secret-key:}")
+    private String secretKey;
+
+    @Value("${notification.image.store.s3.path-style-access:false}")
+    private boolean pathStyleAccess;
+
+    @Bean(destroyMethod = "close")
+    public S3Client s3Client() {
+        S3ClientBuilder builder = S3Client.builder()
+            .region(Region.of(region))
+            .credentialsProvider(credentialsProvider())
+            .forcePathStyle(pathStyleAccess);
+        if (StringUtils.isNotBlank(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Signs the URLs of the redirect delivery mode, with the same endpoint and credentials as the client.
+     */
+    @Bean(destroyMethod = "close")
+    public S3Presigner s3Presigner() {
+        S3Presigner.Builder builder = S3Presigner.builder()
+            .region(Region.of(region))
+            .credentialsProvider(credentialsProvider())
+            .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(pathStyleAccess).build());
+        if (StringUtils.isNotBlank(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        return builder.build();
+    }
+
+    private AwsCredentialsProvider credentialsProvider() {
+        return StringUtils.isBlank(accessKey)
+            ? DefaultCredentialsProvider.create()
+            : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+    }
+}
@@ -0,0 +1,48 @@
+package cx.ksg.notificationserver.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Worker pool used to decode uploaded images and encode them to WebP outside
+ * of the request thread and outside of the create transaction.
+ *
+ * Transcoding is CPU bound, so by default the pool has one thread per
+ * available processor (as seen by the JVM, which respects container limits).
+ * The pool and its queue are bounded. When both are full a submission is
+ * rejected: uploads are submitted from a commit
+ * callback, which must not decode and encode images itself, so the image is
+ * marked FAILED instead, and an on-demand resize answers 503.
+ *
+ * The pool stays on platform threads when virtual threads are enabled: the
+ * work is CPU bound and the WebP codec is native code, which pins virtual
+ * threads to their carrier.
+ */
+@Configuration
+public class ImageTranscodeConfig {
+
+    public static final String IMAGE_TRANSCODE_EXECUTOR = "imageTranscodeExecutor";
+
+    // 0 means one thread per available processor
+    @Value("${notification.image.transcode.pool-size:0}")
+    private int poolSize;
+
+    @Value("${notification.image.transcode.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Bean(name = IMAGE_TRANSCODE_EXECUTOR)
+    public ThreadPoolTaskExecutor imageTranscodeExecutor() {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-transcode-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
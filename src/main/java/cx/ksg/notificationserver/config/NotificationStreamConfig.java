@@ -0,0 +1,47 @@
+package cx.ksg.notificationserver.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Writer pool for the Server-Sent Events stream and the WebSocket push channel.
+ *
+ * Idle subscribers hold no thread, a writer is only borrowed while a
+ * subscriber has events queued. Each subscriber has at most one pending
+ * drain task, so the task queue is bounded by the number of subscribers.
+ * With spring.threads.virtual.enabled every drain runs on its own virtual thread.
+ */
+@Configuration
+@EnableScheduling
+public class NotificationStreamConfig {
+
+    public static final String NOTIFICATION_STREAM_EXECUTOR = "notificationStreamExecutor";
+
+    @Value("${notification.stream.writer-pool-size:4}")
+    private int writerPoolSize;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean(name = NOTIFICATION_STREAM_EXECUTOR)
+    public AsyncTaskExecutor notificationStreamExecutor() {
+        // a writer blocked on a slow client only parks its virtual thread,
+        // so there is no pool for slow clients to exhaust
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("notification-stream-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(writerPoolSize);
+        executor.setMaxPoolSize(writerPoolSize);
+        executor.setThreadNamePrefix("notification-stream-");
+        return executor;
+    }
+}
@@ -0,0 +1,31 @@
+package cx.ksg.notificationserver.config;
+
+import cx.ksg.notificationserver.controller.NotificationWebSocketHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * WebSocket configuration for the notification push channel.
+ * 
+ * The endpoint lives under /notification/ so the upgrade request goes through
+ * the same Bearer token check as the REST endpoints (see SecurityConfig).
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final NotificationWebSocketHandler notificationWebSocketHandler;
+
+    @Autowired
+    public WebSocketConfig(NotificationWebSocketHandler notificationWebSocketHandler) {
+        this.notificationWebSocketHandler = notificationWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(notificationWebSocketHandler, "/notification/socket");
+    }
+}
@@ -1,31 +1,88 @@
 package cx.ksg.notificationserver.controller;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import cx.ksg.notificationserver.dto.ImageDto;
+import cx.ksg.notificationserver.entity.ImageStatus;
+import cx.ksg.notificationserver.service.ImageResizeCache;
 import cx.ksg.notificationserver.service.ImageService;
+import cx.ksg.notificationserver.service.ImageStore;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.NotBlank;
 
 @RestController
 public class ImageController {
+
+    // Stored images never change, so clients and CDNs may keep them for good
+    private static final String CACHE_CONTROL = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable().getHeaderValue();
+
+    // Tomcat sendfile request attributes, see org.apache.tomcat.util.net.Constants / Globals
+    private static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private static final String DELIVERY_REDIRECT = "redirect";
+    private static final String DELIVERY_ACCEL_REDIRECT = "accel-redirect";
+    private static final String X_ACCEL_REDIRECT_HEADER = "X-Accel-Redirect";
     
     @Autowired
     private ImageService imageService;
 
+    @Autowired
+    private ImageResizeCache imageResizeCache;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    // stream, redirect or accel-redirect
+    @Value("${notification.image.delivery.mode:stream}")
+    private String deliveryMode;
+
+    @Value("${notification.image.delivery.redirect-ttl-seconds:300}")
+    private long redirectTtlSeconds;
+
+    // nginx internal location mapped to the root of the image store
+    @Value("${notification.image.delivery.accel-redirect-prefix:/protected-images}")
+    private String accelRedirectPrefix;
+
+    @Value("${notification.image.zero-copy.enabled:true}")
+    private boolean zeroCopy;
+
+    // Below this size the sendfile setup costs more than copying
+    @Value("${notification.image.zero-copy.min-size:49152}")
+    private long zeroCopyMinSize;
+
     @GetMapping(path = "/image/{uuid}")
-    public void getImage(@PathVariable @NotBlank String uuid, HttpServletResponse response) throws IOException
+    public void getImage(@PathVariable @NotBlank String uuid,
+            @RequestParam(name = "w", required = false) Integer width,
+            @RequestParam(name = "h", required = false) Integer height,
+            @RequestParam(name = "q", required = false) Integer quality,
+            HttpServletRequest request, HttpServletResponse response) throws IOException
     {
         if(StringUtils.isBlank(uuid))
         {
@@ -34,17 +91,242 @@ public class ImageController {
         }
 
         ImageDto image = imageService.getImageByUuid(uuid);
-        if(image == null)
+        if(image == null || image.getStatus() == ImageStatus.FAILED)
         {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
-        response.setContentType(image.getContentType());
-        response.setContentLengthLong(image.getSize());
-        try(InputStream is = FileUtils.openInputStream(new File(imageService.getImagePath(image.getFilename()))); OutputStream os = response.getOutputStream())
+        // still being transcoded in the background
+        if(image.getStatus() == ImageStatus.PENDING)
+        {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        // resized on demand when enabled, otherwise the smallest pre-generated variant
+        // at least as wide as requested, or the original
+        boolean resize = imageResizeCache.isEnabled() && (width != null || height != null || quality != null);
+        Integer variant = resize ? null : imageService.selectVariant(image, width);
+
+        // stored files may be handed off to the store or to the front proxy, resized copies
+        // only exist on the local disk of this instance and are always streamed
+        if(!resize && handOff(variant == null ? image.getFilename() : imageService.getVariantFilename(image.getFilename(), variant), image, response))
+        {
+            return;
+        }
+
+        // stored files are read through the image store, resized copies live on local disk
+        // and are read from the file opened by the cache, which stays readable if evicted
+        String filename = null;
+        Path file = null;
+        ImageResizeCache.CachedFile resized = null;
+        String etag;
+        long length;
+        if(resize)
+        {
+            try
+            {
+                resized = imageResizeCache.get(image, width, height, quality);
+            }
+            catch(RejectedExecutionException e)
+            {
+                // transcode pool is full
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            etag = "\"" + StringUtils.removeEnd(resized.name(), ".webp") + "\"";
+            length = resized.channel().size();
+        }
+        else if(variant == null)
+        {
+            filename = image.getFilename();
+            file = imageStore.getLocalPath(filename);
+            etag = "\"" + image.getUuid() + "\"";
+            length = image.getSize();
+        }
+        else
+        {
+            filename = imageService.getVariantFilename(image.getFilename(), variant);
+            file = imageStore.getLocalPath(filename);
+            etag = "\"" + image.getUuid() + "-w" + variant + "\"";
+            length = imageStore.size(filename);
+        }
+
+        try
+        {
+            // answers 304 (or 412) and sets ETag / Last-Modified, stored images never change so
+            // the ETag alone is enough when the file is not local
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+            long lastModified = resized != null ? resized.lastModified() : file != null ? Files.getLastModifiedTime(file).toMillis() : -1;
+            if(new ServletWebRequest(request, response).checkNotModified(etag, lastModified))
+            {
+                return;
+            }
+
+            response.setContentType(image.getContentType());
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+            long start = 0;
+            long count = length;
+            String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+            if(rangeHeader != null && isRangeApplicable(request, etag))
+            {
+                HttpRange range = parseSingleRange(rangeHeader);
+                if(range != null)
+                {
+                    if(!isSatisfiable(range, length))
+                    {
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        return;
+                    }
+                    start = range.getRangeStart(length);
+                    count = range.getRangeEnd(length) - start + 1;
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + count - 1) + "/" + length);
+                }
+            }
+
+            response.setContentLengthLong(count);
+            writeFile(filename, file, resized, start, count, request, response);
+        }
+        finally
+        {
+            if(resized != null)
+            {
+                resized.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes an image. Its stored files are removed once no other image shares them,
+     * copies cached by clients or CDNs are not recalled.
+     */
+    @DeleteMapping(path = "/image/{uuid}")
+    public void deleteImage(@PathVariable @NotBlank String uuid, HttpServletResponse response) throws IOException
+    {
+        if(StringUtils.isBlank(uuid) || !imageService.deleteImage(uuid))
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * Answers with a redirect instead of the image bytes when a delivery mode other than
+     * stream is configured:
+     * - redirect: 302 to a pre-signed URL of the image store, the client downloads from the store
+     * - accel-redirect: X-Accel-Redirect to an nginx internal location, nginx sends the file
+     * 
+     * @return true if the response has been handed off, false if the image is to be streamed
+     */
+    private boolean handOff(String filename, ImageDto image, HttpServletResponse response) throws IOException
+    {
+        if(DELIVERY_REDIRECT.equals(deliveryMode))
+        {
+            String url = imageStore.getSignedUrl(filename, Duration.ofSeconds(redirectTtlSeconds));
+            if(url == null)
+            {
+                // the store cannot serve files itself
+                return false;
+            }
+            // the redirect must not be reused after the signature has expired
+            response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(redirectTtlSeconds / 2, TimeUnit.SECONDS).cachePrivate().getHeaderValue());
+            response.sendRedirect(url);
+            return true;
+        }
+
+        if(DELIVERY_ACCEL_REDIRECT.equals(deliveryMode))
+        {
+            // nginx answers conditional and range requests itself
+            response.setContentType(image.getContentType());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+            response.setHeader(X_ACCEL_REDIRECT_HEADER, accelRedirectPrefix + "/" + imageStore.getLocation(filename));
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes part of a file to the response. When the file is local and the container
+     * supports it (Tomcat's NIO connector without TLS) the file is handed to the connector,
+     * which sends it with FileChannel.transferTo so the bytes never pass through the heap.
+     * Otherwise the range is read from the image store (or the local file) through a buffer.
+     * 
+     * @param filename The stored filename, or null for a resized copy
+     * @param file The local file, or null if the image store is not local or for a resized copy
+     * @param resized The opened resized copy, or null for a stored file
+     */
+    private void writeFile(String filename, Path file, ImageResizeCache.CachedFile resized, long start, long count, HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        // Always copied: sendfile reopens the file by name after the request returns,
+        // by which time the cache may have evicted it
+        if(resized != null)
+        {
+            try(OutputStream os = response.getOutputStream())
+            {
+                IOUtils.copyLarge(Channels.newInputStream(resized.channel().position(start)), os, 0, count);
+            }
+            return;
+        }
+
+        if(file != null && zeroCopy && count >= zeroCopyMinSize && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE)))
+        {
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.toRealPath().toString());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, start + count);
+            return;
+        }
+
+        try(InputStream is = imageStore.stream(filename, start, count); OutputStream os = response.getOutputStream())
+        {
+            IOUtils.copyLarge(is, os);
+        }
+    }
+
+    /**
+     * A Range is only honoured if there is no If-Range or it names the current ETag.
+     */
+    private boolean isRangeApplicable(HttpServletRequest request, String etag)
+    {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        return ifRange == null || ifRange.equals(etag);
+    }
+
+    /**
+     * Parses a Range header holding a single byte range. Multiple ranges and malformed
+     * headers return null, in which case the whole image is sent.
+     */
+    private HttpRange parseSingleRange(String rangeHeader)
+    {
+        try
+        {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        }
+        catch(IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    private boolean isSatisfiable(HttpRange range, long length)
+    {
+        try
+        {
+            range.getRangeStart(length);
+            return true;
+        }
+        catch(IllegalArgumentException e)
         {
-            IOUtils.copy(is, os);
+            return false;
         }
     }
 }
@@ -1,15 +1,27 @@
 package cx.ksg.notificationserver.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cx.ksg.notificationserver.dto.NotificationBatchResultDto;
+import cx.ksg.notificationserver.dto.NotificationCreateDto;
 import cx.ksg.notificationserver.dto.NotificationResponseDto;
 import cx.ksg.notificationserver.dto.NotificationResponseDto2;
 import cx.ksg.notificationserver.dto.NotificationRetrieveDto;
 import cx.ksg.notificationserver.dto.StandardResponseDto;
+import cx.ksg.notificationserver.service.ImageAdmissionService;
 import cx.ksg.notificationserver.service.ImageService;
+import cx.ksg.notificationserver.service.NotificationLongPollService;
 import cx.ksg.notificationserver.service.NotificationService;
+import cx.ksg.notificationserver.service.NotificationStreamService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -17,8 +29,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.multipart.MultipartFile;
 
 @RestController
@@ -30,29 +45,49 @@ public class NotificationController {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private NotificationLongPollService notificationLongPollService;
+
+    @Autowired
+    private NotificationStreamService notificationStreamService;
+
     @Autowired
     private ImageService imageService;
 
+    @Autowired
+    private ImageAdmissionService imageAdmissionService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Value("${notification.host-url}")
     private String hostUrl;
 
     @PostMapping("/create")
     public ResponseEntity<StandardResponseDto<?>> createNotification(
             @Valid @RequestParam @NotBlank @Size(max = 10000, message = "Content cannot exceed 10000 characters") String content,
-            @Valid @RequestParam @NotBlank String from,
+            @Valid @RequestParam @NotBlank @Size(max = 255, message = "From cannot exceed 255 characters") String from,
             @RequestParam List<MultipartFile> images
         ) {
 
+        // The headers are only parsed here, admission and staging use the dimensions read
+        List<ImageService.ValidatedImage> validated = new ArrayList<>();
         for(var image : images)
         {
-            if(!imageService.validateImageFile(image))
+            ImageService.ValidatedImage image2 = imageService.validateImage(image);
+            if(image2 == null)
             {
                 return ResponseEntity.ok(new StandardResponseDto<Void>(false, "image is not valid"));
             }
+            validated.add(image2);
         }
         
+        // Reserve decode memory for the images, the service releases it once they are
+        // transcoded or the creation has failed
+        ImageAdmissionService.Permit permit = imageAdmissionService.admit(validated);
+
         // Create the notification using the service
-        NotificationResponseDto response = notificationService.createNotification(content, from, images);
+        NotificationResponseDto response = notificationService.createNotification(content, from, validated, permit::release);
         
         logger.info("Successfully created notification with ID: {}", response.getId());
         
@@ -60,16 +95,63 @@ public class NotificationController {
         return ResponseEntity.status(HttpStatus.OK).body(new StandardResponseDto<NotificationResponseDto2>(true, response2));
     }
 
+    /**
+     * Creates up to notification.batch.max-items notifications from a JSON array of
+     * NotificationCreateDto in one transaction. The array is parsed item by item while
+     * inserting, so the request body is never held in memory as a whole.
+     */
+    @PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StandardResponseDto<?>> createNotifications(HttpServletRequest request) throws IOException {
+        try(MappingIterator<NotificationCreateDto> values = objectMapper.readerFor(NotificationCreateDto.class).readValues(request.getInputStream()))
+        {
+            List<NotificationBatchResultDto> results = notificationService.createNotifications(new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    try {
+                        return values.hasNextValue();
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("malformed batch: " + e.getMessage(), e);
+                    }
+                }
+
+                @Override
+                public NotificationCreateDto next() {
+                    try {
+                        return values.nextValue();
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("malformed batch: " + e.getMessage(), e);
+                    }
+                }
+            });
+            return ResponseEntity.ok(new StandardResponseDto<>(true, results));
+        }
+    }
+
     @PostMapping("/retrieve")
-    public ResponseEntity<StandardResponseDto<?>> retrieveNotifications(
+    public DeferredResult<ResponseEntity<StandardResponseDto<?>>> retrieveNotifications(
             @Valid @RequestBody NotificationRetrieveDto request) {
         
         logger.info("Received notification retrieval request: {}", request);
         
-        List<NotificationResponseDto> response = notificationService.retrieveNotifications(request);
-        
-        var response2 = response.stream().map(x -> NotificationResponseDto2.fromNotificationResponseDto(hostUrl, x));
+        if (request.isPaged()) {
+            return notificationLongPollService.retrievePage(request, page -> {
+                var page2 = page.map(x -> NotificationResponseDto2.fromNotificationResponseDto(hostUrl, x));
+                return ResponseEntity.ok(new StandardResponseDto<>(true, page2));
+            });
+        }
+
+        return notificationLongPollService.retrieve(request, response -> {
+            var response2 = response.stream().map(x -> NotificationResponseDto2.fromNotificationResponseDto(hostUrl, x)).toList();
+            return ResponseEntity.ok(new StandardResponseDto<>(true, response2));
+        });
+    }
+
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamNotifications(
+            @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+
+        logger.info("Received notification stream request, Last-Event-ID: {}", lastEventId);
 
-        return ResponseEntity.ok(new StandardResponseDto<>(true, response2));
+        return notificationStreamService.subscribe(lastEventId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,290 @@
+package cx.ksg.notificationserver.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cx.ksg.notificationserver.config.NotificationStreamConfig;
+import cx.ksg.notificationserver.dto.NotificationPageDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto2;
+import cx.ksg.notificationserver.dto.StandardResponseDto;
+import cx.ksg.notificationserver.event.NotificationBatchCreatedEvent;
+import cx.ksg.notificationserver.event.NotificationCreatedEvent;
+import cx.ksg.notificationserver.service.NotificationService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * WebSocket push channel for new notifications.
+ * 
+ * Clients connect to /notification/socket, optionally with a lastId query parameter.
+ * The notifications after lastId are replayed first, then every committed notification
+ * is pushed as a StandardResponseDto holding a list of NotificationResponseDto2.
+ * A client that missed more than notification.websocket.max-replay receives an
+ * unsuccessful "resync" frame after the replay, whose data holds the afterId to page
+ * the rest from on /notification/retrieve. A batch create is announced with the same
+ * resync frame instead of pushing every notification of the batch.
+ * Notifications arriving within the batch window are sent together in one frame.
+ * 
+ * Each connection has a bounded outbound queue. A connection whose queue reaches the
+ * high-water mark is reported as lagging, a connection whose queue is full is closed.
+ */
+@Component
+public class NotificationWebSocketHandler extends TextWebSocketHandler implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationWebSocketHandler.class);
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier(NotificationStreamConfig.NOTIFICATION_STREAM_EXECUTOR)
+    private Executor notificationStreamExecutor;
+
+    @Value("${notification.host-url}")
+    private String hostUrl;
+
+    @Value("${notification.websocket.batch-window-millis:5}")
+    private long batchWindowMillis;
+
+    @Value("${notification.websocket.high-water-mark:32}")
+    private int highWaterMark;
+
+    @Value("${notification.websocket.max-queue-size:128}")
+    private int maxQueueSize;
+
+    @Value("${notification.websocket.max-replay:1000}")
+    private int maxReplay;
+
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    // Only waits out the batch window, frames are written on the stream writer pool
+    private ScheduledExecutorService batchScheduler;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        Connection connection = new Connection(session);
+        connections.put(session.getId(), connection);
+
+        // Registered before the replay query so nothing committed in between is missed,
+        // live notifications stay queued until the replay has been written
+        Long lastId = getLastId(session);
+        if (lastId != null) {
+            connection.lastSentId = lastId;
+
+            // oldest first, in frames no larger than a live flush
+            NotificationPageDto<NotificationResponseDto> missed = notificationService.retrieveMissed(lastId, maxReplay);
+            List<NotificationResponseDto> notifications = missed.getNotifications();
+            connection.replayedIds = notifications.stream().map(NotificationResponseDto::getId).collect(Collectors.toSet());
+            for (int i = 0; i < notifications.size(); i += maxQueueSize) {
+                connection.send(notifications.subList(i, Math.min(i + maxQueueSize, notifications.size())));
+            }
+
+            // The gap is too large to replay, the client pages the rest itself
+            if (missed.isHasMore()) {
+                logger.debug("WebSocket replay after ID {} exceeds {} notifications, sending resync", lastId, maxReplay);
+                connection.sendResync();
+            }
+        }
+        connection.release();
+        logger.debug("WebSocket connection {} opened, {} connections", session.getId(), connections.size());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        connections.remove(session.getId());
+        logger.debug("WebSocket connection {} closed: {}", session.getId(), status);
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        logger.debug("WebSocket transport error on connection {}", session.getId(), exception);
+        close(session, CloseStatus.SERVER_ERROR);
+    }
+
+    @TransactionalEventListener
+    public void onNotificationCreated(NotificationCreatedEvent event) {
+        for (Connection connection : connections.values()) {
+            connection.offer(event.getNotification());
+        }
+    }
+
+    @TransactionalEventListener
+    public void onNotificationBatchCreated(NotificationBatchCreatedEvent event) {
+        for (Connection connection : connections.values()) {
+            connection.requestResync();
+        }
+    }
+
+    /**
+     * @return the number of open connections whose outbound queue is at or above the high-water mark
+     */
+    public long getLaggingConnectionCount() {
+        return connections.values().stream().filter(Connection::isLagging).count();
+    }
+
+    private Long getLastId(WebSocketSession session) {
+        if (session.getUri() == null) {
+            return null;
+        }
+        String lastId = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("lastId");
+        try {
+            return lastId == null ? null : Long.valueOf(lastId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void close(WebSocketSession session, CloseStatus status) {
+        connections.remove(session.getId());
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            logger.debug("Failed to close WebSocket connection {}", session.getId(), e);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        batchScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-socket-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("notification.websocket.connections", connections, Map::size)
+            .description("Open notification WebSocket connections")
+            .register(meterRegistry);
+        Gauge.builder("notification.websocket.lagging", this, NotificationWebSocketHandler::getLaggingConnectionCount)
+            .description("Notification WebSocket connections at or above the outbound high-water mark")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public void destroy() {
+        batchScheduler.shutdownNow();
+    }
+
+    private final class Connection {
+        private final WebSocketSession session;
+        private final BlockingQueue<NotificationResponseDto> queue = new ArrayBlockingQueue<>(maxQueueSize);
+        // Set while a flush is scheduled or running, starts set so live notifications wait for the replay
+        private final AtomicBoolean flushing = new AtomicBoolean(true);
+        // Set when notifications were created that are not in the queue
+        private final AtomicBoolean resync = new AtomicBoolean();
+        // Highest ID sent, the afterId of a resync
+        private volatile long lastSentId;
+        // IDs sent by the replay, which may also be queued. Compared by ID rather than
+        // against lastSentId: concurrent creates commit out of ID order, so a live
+        // notification may have a lower ID than one already sent and still be new
+        private volatile Set<Long> replayedIds = Set.of();
+
+        private Connection(WebSocketSession session) {
+            this.session = session;
+        }
+
+        private boolean isLagging() {
+            return queue.size() >= highWaterMark;
+        }
+
+        private void offer(NotificationResponseDto notification) {
+            if (!queue.offer(notification)) {
+                logger.info("Closing lagging WebSocket connection {}, outbound queue of {} is full", session.getId(), maxQueueSize);
+                close(session, CloseStatus.SESSION_NOT_RELIABLE);
+                return;
+            }
+            scheduleFlush();
+        }
+
+        private void requestResync() {
+            resync.set(true);
+            scheduleFlush();
+        }
+
+        private void release() {
+            flushing.set(false);
+            if (!queue.isEmpty() || resync.get()) {
+                scheduleFlush();
+            }
+        }
+
+        private void scheduleFlush() {
+            if (flushing.compareAndSet(false, true)) {
+                batchScheduler.schedule(() -> notificationStreamExecutor.execute(this::flush), batchWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void flush() {
+            try {
+                do {
+                    if (resync.getAndSet(false)) {
+                        sendResync();
+                    }
+                    List<NotificationResponseDto> batch = new ArrayList<>();
+                    while (queue.drainTo(batch, maxQueueSize) > 0) {
+                        // Already delivered by the replay
+                        batch.removeIf(x -> replayedIds.contains(x.getId()));
+                        if (!batch.isEmpty()) {
+                            send(batch);
+                        }
+                        batch.clear();
+                    }
+                    flushing.set(false);
+                } while ((!queue.isEmpty() || resync.get()) && flushing.compareAndSet(false, true));
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Failed to write to WebSocket connection {}", session.getId(), e);
+                close(session, CloseStatus.SERVER_ERROR);
+            }
+        }
+
+        private void send(List<NotificationResponseDto> notifications) throws IOException {
+            List<NotificationResponseDto2> payload = notifications.stream()
+                .map(x -> NotificationResponseDto2.fromNotificationResponseDto(hostUrl, x))
+                .toList();
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(new StandardResponseDto<>(true, payload))));
+            for (NotificationResponseDto notification : notifications) {
+                if (notification.getId() > lastSentId) {
+                    lastSentId = notification.getId();
+                }
+            }
+        }
+
+        private void sendResync() throws IOException {
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(
+                new StandardResponseDto<>(false, "resync", Map.of("afterId", lastSentId)))));
+        }
+    }
+}
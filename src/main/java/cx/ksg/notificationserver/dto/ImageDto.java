@@ -1,24 +1,37 @@
 package cx.ksg.notificationserver.dto;
 
 import cx.ksg.notificationserver.entity.Image;
+import cx.ksg.notificationserver.entity.ImageStatus;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class ImageDto {
-    private int id;
+    private long id;
     private String uuid;
     private transient String filename;
+    private transient String sha256;
     private String contentType;
     private long size;
+    private ImageStatus status;
+    private List<Integer> variants;
 
     // Constructors
     public ImageDto() {
     }
 
-    public ImageDto(int id, String uuid, String filename, String contentType, long size) {
+    public ImageDto(long id, String uuid, String filename, String contentType, long size) {
+        this(id, uuid, filename, contentType, size, ImageStatus.READY);
+    }
+
+    public ImageDto(long id, String uuid, String filename, String contentType, long size, ImageStatus status) {
         this.id = id;
         this.uuid = uuid;
         this.filename = filename;
         this.contentType = contentType;
         this.size = size;
+        this.status = status;
     }
 
     // Static factory method
@@ -26,21 +39,40 @@ public class ImageDto {
         if (image == null) {
             return null;
         }
-        return new ImageDto(
+        ImageDto imageDto = new ImageDto(
             image.getId(),
             image.getUuid(),
             image.getPath(),
             image.getContentType(),
-            image.getSize()
+            image.getSize(),
+            image.getStatus()
         );
+        imageDto.setSha256(image.getSha256());
+        imageDto.setVariants(parseVariants(image.getVariants()));
+        return imageDto;
+    }
+
+    // Variant widths are stored as a comma separated column
+    public static List<Integer> parseVariants(String variants) {
+        if (variants == null || variants.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(variants.split(",")).map(String::trim).map(Integer::valueOf).toList();
+    }
+
+    public static String formatVariants(List<Integer> variants) {
+        if (variants == null || variants.isEmpty()) {
+            return null;
+        }
+        return variants.stream().map(String::valueOf).collect(Collectors.joining(","));
     }
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -60,6 +92,14 @@ public class ImageDto {
         this.filename = filename;
     }
 
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
     public String getContentType() {
         return contentType;
     }
@@ -76,6 +116,22 @@ public class ImageDto {
         this.size = size;
     }
 
+    public ImageStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ImageStatus status) {
+        this.status = status;
+    }
+
+    public List<Integer> getVariants() {
+        return variants;
+    }
+
+    public void setVariants(List<Integer> variants) {
+        this.variants = variants;
+    }
+
     // equals and hashCode
     @Override
     public boolean equals(Object o) {
@@ -86,12 +142,15 @@ public class ImageDto {
                size == imageDto.size &&
                java.util.Objects.equals(uuid, imageDto.uuid) &&
                java.util.Objects.equals(filename, imageDto.filename) &&
-               java.util.Objects.equals(contentType, imageDto.contentType);
+               java.util.Objects.equals(sha256, imageDto.sha256) &&
+               java.util.Objects.equals(contentType, imageDto.contentType) &&
+               status == imageDto.status &&
+               java.util.Objects.equals(variants, imageDto.variants);
     }
 
     @Override
     public int hashCode() {
-        return java.util.Objects.hash(id, uuid, filename, contentType, size);
+        return java.util.Objects.hash(id, uuid, filename, sha256, contentType, size, status, variants);
     }
 
     // toString
@@ -101,8 +160,11 @@ public class ImageDto {
                 "id=" + id +
                 ", uuid='" + uuid + '\'' +
                 ", filename='" + filename + '\'' +
+                ", sha256='" + sha256 + '\'' +
                 ", contentType='" + contentType + '\'' +
                 ", size=" + size +
+                ", status=" + status +
+                ", variants=" + variants +
                 '}';
     }
 }
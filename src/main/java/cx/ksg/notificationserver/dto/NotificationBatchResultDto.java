@@ -0,0 +1,90 @@
+package cx.ksg.notificationserver.dto;
+
+import java.util.Objects;
+
+/**
+ * Result of one item of a batch create request.
+ * Items are reported in request order, index is the position in the request array.
+ */
+public class NotificationBatchResultDto {
+    private int index;
+    private boolean success;
+    private Long id;
+    private String message;
+
+    public NotificationBatchResultDto() {
+    }
+
+    public NotificationBatchResultDto(int index, boolean success, Long id, String message) {
+        this.index = index;
+        this.success = success;
+        this.id = id;
+        this.message = message;
+    }
+
+    public static NotificationBatchResultDto created(int index, Long id) {
+        return new NotificationBatchResultDto(index, true, id, null);
+    }
+
+    public static NotificationBatchResultDto rejected(int index, String message) {
+        return new NotificationBatchResultDto(index, false, null, message);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NotificationBatchResultDto that = (NotificationBatchResultDto) o;
+        return index == that.index &&
+               success == that.success &&
+               Objects.equals(id, that.id) &&
+               Objects.equals(message, that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, success, id, message);
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationBatchResultDto{" +
+                "index=" + index +
+                ", success=" + success +
+                ", id=" + id +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
@@ -2,6 +2,7 @@ package cx.ksg.notificationserver.dto;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 import java.util.List;
 
 /**
@@ -11,12 +12,14 @@ import java.util.List;
 public class NotificationCreateDto {
 
     @NotBlank(message = "Content cannot be blank")
+    @Size(max = 10000, message = "Content cannot exceed 10000 characters")
     private String content;
 
     @NotNull(message = "Send on timestamp is required")
     private Long sendOn;
 
     @NotBlank(message = "From field cannot be blank")
+    @Size(max = 255, message = "From cannot exceed 255 characters")
     private String from;
 
     private List<String> imageUuids;
@@ -0,0 +1,83 @@
+package cx.ksg.notificationserver.dto;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * One keyset page of a retrieve request.
+ * 
+ * cursor is an opaque token to pass back as the cursor of the next request. Forward pages
+ * always carry one, so a client that has caught up keeps polling from where it stopped.
+ * Backward pages carry none once the oldest notification has been returned.
+ * hasMore is true when more notifications were already available past this page.
+ */
+public class NotificationPageDto<T> {
+    private List<T> notifications;
+    private String cursor;
+    private boolean hasMore;
+
+    public NotificationPageDto() {
+    }
+
+    public NotificationPageDto(List<T> notifications, String cursor, boolean hasMore) {
+        this.notifications = notifications;
+        this.cursor = cursor;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * @return a page with the same cursor whose notifications are converted with mapper
+     */
+    public <R> NotificationPageDto<R> map(Function<T, R> mapper) {
+        return new NotificationPageDto<>(notifications.stream().map(mapper).toList(), cursor, hasMore);
+    }
+
+    public List<T> getNotifications() {
+        return notifications;
+    }
+
+    public void setNotifications(List<T> notifications) {
+        this.notifications = notifications;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NotificationPageDto<?> that = (NotificationPageDto<?>) o;
+        return hasMore == that.hasMore &&
+               Objects.equals(notifications, that.notifications) &&
+               Objects.equals(cursor, that.cursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(notifications, cursor, hasMore);
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationPageDto{" +
+                "notifications=" + notifications +
+                ", cursor='" + cursor + '\'' +
+                ", hasMore=" + hasMore +
+                '}';
+    }
+}
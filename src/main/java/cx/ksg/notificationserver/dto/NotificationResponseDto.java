@@ -1,5 +1,6 @@
 package cx.ksg.notificationserver.dto;
 
+import cx.ksg.notificationserver.entity.Image;
 import cx.ksg.notificationserver.entity.Notification;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -56,7 +57,15 @@ public class NotificationResponseDto {
     }
 
     public static NotificationResponseDto fromNotification(Notification notification) {
-        List<ImageDto> imageDtos = notification.getImages().stream()
+        return fromNotification(notification, notification.getImages());
+    }
+
+    /**
+     * Builds the DTO from a notification and its already loaded images,
+     * without touching the lazy images collection of the entity.
+     */
+    public static NotificationResponseDto fromNotification(Notification notification, List<Image> images) {
+        List<ImageDto> imageDtos = images.stream()
             .map(ImageDto::fromImage).toList();
         
         return new NotificationResponseDto(
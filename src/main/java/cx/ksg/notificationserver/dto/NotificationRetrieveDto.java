@@ -1,10 +1,54 @@
 package cx.ksg.notificationserver.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Size;
+
 import java.util.Objects;
 
+/**
+ * Retrieve request.
+ * 
+ * With only lastId set, the newest notifications after lastId are returned as a plain list.
+ * Setting afterId, beforeId or cursor asks for a keyset page instead: afterId pages forward
+ * (oldest first), beforeId pages backward through the history (newest first), and cursor
+ * continues from the cursor returned by the previous page.
+ * 
+ * Pages can be filtered by sender and by an inclusive sendOn range. A filtered request
+ * without a position starts at the newest matching notification. With a sendOn range
+ * pages are sorted by sendOn and then ID instead of by ID alone.
+ */
 public class NotificationRetrieveDto {
     private long lastId;
 
+    @Min(value = 0, message = "afterId cannot be negative")
+    private Long afterId;
+
+    @Min(value = 1, message = "beforeId must be positive")
+    private Long beforeId;
+
+    @Min(value = 1, message = "limit must be at least 1")
+    @Max(value = 500, message = "limit cannot exceed 500")
+    private Integer limit;
+
+    private String cursor;
+
+    @Size(max = 255, message = "From cannot exceed 255 characters")
+    private String from;
+
+    private Long sendOnFrom;
+
+    private Long sendOnTo;
+
+    /**
+     * Optional long-poll timeout. When set and nothing newer than lastId exists,
+     * the request is held until a notification is created or the timeout fires.
+     */
+    @Min(value = 0, message = "waitMillis cannot be negative")
+    private Long waitMillis;
+
     public long getLastId() {
         return lastId;
     }
@@ -13,23 +57,119 @@ public class NotificationRetrieveDto {
         this.lastId = lastId;
     }
 
+    public Long getAfterId() {
+        return afterId;
+    }
+
+    public void setAfterId(Long afterId) {
+        this.afterId = afterId;
+    }
+
+    public Long getBeforeId() {
+        return beforeId;
+    }
+
+    public void setBeforeId(Long beforeId) {
+        this.beforeId = beforeId;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public Long getSendOnFrom() {
+        return sendOnFrom;
+    }
+
+    public void setSendOnFrom(Long sendOnFrom) {
+        this.sendOnFrom = sendOnFrom;
+    }
+
+    public Long getSendOnTo() {
+        return sendOnTo;
+    }
+
+    public void setSendOnTo(Long sendOnTo) {
+        this.sendOnTo = sendOnTo;
+    }
+
+    public Long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public void setWaitMillis(Long waitMillis) {
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * @return true if the request asks for a keyset page rather than the lastId list
+     */
+    @JsonIgnore
+    public boolean isPaged() {
+        return afterId != null || beforeId != null || cursor != null || isFiltered();
+    }
+
+    /**
+     * @return true if the request filters by sender or sendOn
+     */
+    @JsonIgnore
+    public boolean isFiltered() {
+        return from != null || sendOnFrom != null || sendOnTo != null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         NotificationRetrieveDto that = (NotificationRetrieveDto) o;
-        return lastId == that.lastId;
+        return lastId == that.lastId &&
+               Objects.equals(afterId, that.afterId) &&
+               Objects.equals(beforeId, that.beforeId) &&
+               Objects.equals(limit, that.limit) &&
+               Objects.equals(cursor, that.cursor) &&
+               Objects.equals(from, that.from) &&
+               Objects.equals(sendOnFrom, that.sendOnFrom) &&
+               Objects.equals(sendOnTo, that.sendOnTo) &&
+               Objects.equals(waitMillis, that.waitMillis);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(lastId);
+        return Objects.hash(lastId, afterId, beforeId, limit, cursor, from, sendOnFrom, sendOnTo, waitMillis);
     }
 
     @Override
     public String toString() {
         return "NotificationRetrieveDto{" +
                 "lastId=" + lastId +
+                ", afterId=" + afterId +
+                ", beforeId=" + beforeId +
+                ", limit=" + limit +
+                ", cursor='" + cursor + '\'' +
+                ", from='" + from + '\'' +
+                ", sendOnFrom=" + sendOnFrom +
+                ", sendOnTo=" + sendOnTo +
+                ", waitMillis=" + waitMillis +
                 '}';
     }
-}
\ No newline at end of file
+}
@@ -2,18 +2,23 @@ package cx.ksg.notificationserver.entity;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 
 @Entity(name = "image")
 public class Image {
+    // Pooled ids instead of IDENTITY, so the images of a notification are inserted in one batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private int id;
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_seq")
+    @SequenceGenerator(name = "image_seq", sequenceName = "image_seq", allocationSize = 50)
+    private long id;
 
     @Column
     private String uuid;
@@ -24,19 +29,31 @@ public class Image {
     @Column
     private long size;
 
+    // SHA-256 of the original upload, references image_blob
+    @Column(length = 64)
+    private String sha256;
+
     @Column(name = "content_type", nullable = false)
     private String contentType;
 
+    // Comma separated widths of the resized variants stored next to the original
+    @Column
+    private String variants;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ImageStatus status = ImageStatus.PENDING;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "notification_id", nullable = false)
     private Notification notification;
 
     // Getters and Setters
-    public int getId() {
+    public long getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -64,6 +81,22 @@ public class Image {
         this.contentType = contentType;
     }
 
+    public String getVariants() {
+        return variants;
+    }
+
+    public void setVariants(String variants) {
+        this.variants = variants;
+    }
+
+    public ImageStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ImageStatus status) {
+        this.status = status;
+    }
+
     public Notification getNotification() {
         return notification;
     }
@@ -72,6 +105,14 @@ public class Image {
         this.notification = notification;
     }
 
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
     public String getUuid() {
         return uuid;
     }
@@ -90,12 +131,15 @@ public class Image {
                size == image.size && 
                java.util.Objects.equals(uuid, image.uuid) &&
                java.util.Objects.equals(path, image.path) && 
-               java.util.Objects.equals(contentType, image.contentType);
+               java.util.Objects.equals(sha256, image.sha256) &&
+               java.util.Objects.equals(contentType, image.contentType) &&
+               java.util.Objects.equals(variants, image.variants) &&
+               status == image.status;
     }
 
     @Override
     public int hashCode() {
-        return java.util.Objects.hash(id, uuid, path, size, contentType);
+        return java.util.Objects.hash(id, uuid, path, sha256, size, contentType, variants, status);
     }
 
     // toString
@@ -106,7 +150,10 @@ public class Image {
                 ", uuid='" + uuid + '\'' +
                 ", path='" + path + '\'' +
                 ", size=" + size +
+                ", sha256='" + sha256 + '\'' +
                 ", contentType='" + contentType + '\'' +
+                ", variants='" + variants + '\'' +
+                ", status=" + status +
                 ", notificationId=" + (notification != null ? notification.getId() : null) +
                 '}';
     }
@@ -0,0 +1,121 @@
+package cx.ksg.notificationserver.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * JPA Entity representing a stored WebP file, shared by every image uploaded with the same content.
+ * 
+ * This entity maps to the 'image_blob' table and contains:
+ * - SHA-256 of the original upload (sha256)
+ * - Filename of the WebP file in the storage directory (path)
+ * - Size of the WebP file (size)
+ * - Widths of the resized variants (variants)
+ * - Number of image rows using the file (referenceCount)
+ */
+@Entity
+@Table(name = "image_blob")
+public class ImageBlob {
+
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(nullable = false)
+    private String path;
+
+    @Column
+    private long size;
+
+    // Comma separated widths of the resized variants stored next to the original
+    @Column
+    private String variants;
+
+    @Column(name = "reference_count", nullable = false)
+    private int referenceCount;
+
+    // Constructors
+    public ImageBlob() {
+    }
+
+    public ImageBlob(String sha256, String path, long size, String variants, int referenceCount) {
+        this.sha256 = sha256;
+        this.path = path;
+        this.size = size;
+        this.variants = variants;
+        this.referenceCount = referenceCount;
+    }
+
+    // Getters and Setters
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getVariants() {
+        return variants;
+    }
+
+    public void setVariants(String variants) {
+        this.variants = variants;
+    }
+
+    public int getReferenceCount() {
+        return referenceCount;
+    }
+
+    public void setReferenceCount(int referenceCount) {
+        this.referenceCount = referenceCount;
+    }
+
+    // equals and hashCode
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ImageBlob imageBlob = (ImageBlob) o;
+        return size == imageBlob.size &&
+               referenceCount == imageBlob.referenceCount &&
+               java.util.Objects.equals(sha256, imageBlob.sha256) &&
+               java.util.Objects.equals(path, imageBlob.path) &&
+               java.util.Objects.equals(variants, imageBlob.variants);
+    }
+
+    @Override
+    public int hashCode() {
+        return java.util.Objects.hash(sha256, path, size, variants, referenceCount);
+    }
+
+    // toString
+    @Override
+    public String toString() {
+        return "ImageBlob{" +
+                "sha256='" + sha256 + '\'' +
+                ", path='" + path + '\'' +
+                ", size=" + size +
+                ", variants='" + variants + '\'' +
+                ", referenceCount=" + referenceCount +
+                '}';
+    }
+}
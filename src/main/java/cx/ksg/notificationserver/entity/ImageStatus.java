@@ -0,0 +1,14 @@
+package cx.ksg.notificationserver.entity;
+
+/**
+ * Lifecycle state of an image row.
+ *
+ * Rows are inserted as PENDING together with their notification and move to
+ * READY once the background transcoder has written the WebP file, or to
+ * FAILED if the upload could not be decoded.
+ */
+public enum ImageStatus {
+    PENDING,
+    READY,
+    FAILED
+}
@@ -0,0 +1,48 @@
+package cx.ksg.notificationserver.event;
+
+/**
+ * Published by ImageService when an image is deleted.
+ * Listeners should use {@code @TransactionalEventListener} so they only see
+ * deletes whose transaction has committed.
+ */
+public class ImageDeletedEvent {
+
+    private final String uuid;
+
+    private final String filename;
+
+    private final boolean contentDeleted;
+
+    public ImageDeletedEvent(String uuid, String filename, boolean contentDeleted) {
+        this.uuid = uuid;
+        this.filename = filename;
+        this.contentDeleted = contentDeleted;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * @return The stored file of the image, possibly shared with other images
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return true if no other image references the stored file, so it is deleted as well
+     */
+    public boolean isContentDeleted() {
+        return contentDeleted;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageDeletedEvent{" +
+                "uuid='" + uuid + '\'' +
+                ", filename='" + filename + '\'' +
+                ", contentDeleted=" + contentDeleted +
+                '}';
+    }
+}
@@ -0,0 +1,39 @@
+package cx.ksg.notificationserver.event;
+
+import cx.ksg.notificationserver.dto.ImageDto;
+
+/**
+ * Published by ImageService when a pending image becomes READY or FAILED.
+ * Listeners should use {@code @TransactionalEventListener} so they only see
+ * statuses whose transaction has committed.
+ */
+public class ImageStatusChangedEvent {
+
+    private final long notificationId;
+
+    private final ImageDto image;
+
+    public ImageStatusChangedEvent(long notificationId, ImageDto image) {
+        this.notificationId = notificationId;
+        this.image = image;
+    }
+
+    public long getNotificationId() {
+        return notificationId;
+    }
+
+    /**
+     * @return The image with its new status, size and variants
+     */
+    public ImageDto getImage() {
+        return image;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageStatusChangedEvent{" +
+                "notificationId=" + notificationId +
+                ", image=" + image +
+                '}';
+    }
+}
@@ -0,0 +1,47 @@
+package cx.ksg.notificationserver.event;
+
+/**
+ * Published by NotificationService once per batch create, instead of one
+ * NotificationCreatedEvent per notification. Holding an event and its DTO for every
+ * item until commit would grow with the batch, and pushing thousands of notifications
+ * at once would overflow every stream subscriber's buffer.
+ * 
+ * Listeners should use {@code @TransactionalEventListener}. The notifications themselves
+ * are not carried, listeners invalidate what they hold and clients catch up by paging
+ * from their last seen ID.
+ */
+public class NotificationBatchCreatedEvent {
+
+    private final int count;
+
+    private final long minId;
+
+    private final long maxId;
+
+    public NotificationBatchCreatedEvent(int count, long minId, long maxId) {
+        this.count = count;
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getMinId() {
+        return minId;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationBatchCreatedEvent{" +
+                "count=" + count +
+                ", minId=" + minId +
+                ", maxId=" + maxId +
+                '}';
+    }
+}
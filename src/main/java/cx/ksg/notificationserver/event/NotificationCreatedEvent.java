@@ -0,0 +1,28 @@
+package cx.ksg.notificationserver.event;
+
+import cx.ksg.notificationserver.dto.NotificationResponseDto;
+
+/**
+ * Published by NotificationService when a notification is created.
+ * Listeners should use {@code @TransactionalEventListener} so they only see
+ * notifications whose transaction has committed.
+ */
+public class NotificationCreatedEvent {
+
+    private final NotificationResponseDto notification;
+
+    public NotificationCreatedEvent(NotificationResponseDto notification) {
+        this.notification = notification;
+    }
+
+    public NotificationResponseDto getNotification() {
+        return notification;
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationCreatedEvent{" +
+                "notification=" + notification +
+                '}';
+    }
+}
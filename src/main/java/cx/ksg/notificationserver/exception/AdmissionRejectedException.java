@@ -0,0 +1,18 @@
+package cx.ksg.notificationserver.exception;
+
+/**
+ * Thrown when a request cannot be admitted because the server is out of capacity.
+ * Mapped to HTTP 503 with a Retry-After header by GlobalExceptionHandler.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
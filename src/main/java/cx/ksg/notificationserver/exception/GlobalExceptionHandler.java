@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -31,6 +32,7 @@ import java.util.stream.Collectors;
  * - MethodArgumentNotValidException (validation errors)
  * - HttpMessageNotReadableException (JSON parsing errors)
  * - AuthenticationException (authentication errors)
+ * - AdmissionRejectedException (server out of capacity)
  * - RuntimeException (system errors)
  * - General Exception (fallback)
  * 
@@ -209,6 +211,32 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse);
     }
 
+    /**
+     * Handles requests rejected by admission control.
+     * 
+     * This occurs when the server is temporarily out of capacity, for example
+     * when the image memory budget is exhausted by concurrent uploads.
+     * 
+     * @param ex the admission rejected exception
+     * @return ResponseEntity with error details, a Retry-After header and HTTP 503 Service Unavailable
+     */
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<ErrorResponse> handleAdmissionRejectedException(
+            AdmissionRejectedException ex) {
+        
+        logger.warn("Request rejected by admission control: {}", ex.getMessage());
+        
+        ErrorResponse errorResponse = new ErrorResponse(
+            "SERVICE_UNAVAILABLE",
+            ex.getMessage(),
+            getCurrentRequestPath()
+        );
+        
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+            .body(errorResponse);
+    }
+
     /**
      * Handles runtime exceptions (system errors).
      * 
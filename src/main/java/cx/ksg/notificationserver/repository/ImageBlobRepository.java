@@ -0,0 +1,61 @@
+package cx.ksg.notificationserver.repository;
+
+import cx.ksg.notificationserver.entity.ImageBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository interface for ImageBlob entity operations.
+ * 
+ * Blobs are looked up by the SHA-256 of the uploaded content. Reference counts are
+ * changed with single UPDATE statements, so the row lock is held until the calling
+ * transaction commits and concurrent uploads and deletes of the same content serialize,
+ * on every node. A count never goes below zero, and a blob at zero is no longer
+ * referenced, it is about to be deleted.
+ */
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    /**
+     * Record newly stored content, with one reference.
+     * 
+     * @throws org.springframework.dao.DataIntegrityViolationException if the content is
+     *         already stored, possibly by another node
+     */
+    @Modifying
+    @Query(value = "INSERT INTO image_blob (sha256, path, size, variants, reference_count) VALUES (:sha256, :path, :size, :variants, 1)", nativeQuery = true)
+    void insert(@Param("sha256") String sha256, @Param("path") String path, @Param("size") long size, @Param("variants") String variants);
+
+    /**
+     * Take a reference on a stored blob.
+     * 
+     * @param sha256 The SHA-256 of the content
+     * @return Number of rows updated, 0 if the content is not stored yet or is being deleted
+     */
+    @Modifying
+    @Query("UPDATE ImageBlob b SET b.referenceCount = b.referenceCount + 1 WHERE b.sha256 = :sha256 AND b.referenceCount > 0")
+    int incrementReferenceCount(@Param("sha256") String sha256);
+
+    /**
+     * Drop a reference on a stored blob.
+     * 
+     * @param sha256 The SHA-256 of the content
+     * @return Number of rows updated, 0 if there was no reference left
+     */
+    @Modifying
+    @Query("UPDATE ImageBlob b SET b.referenceCount = b.referenceCount - 1 WHERE b.sha256 = :sha256 AND b.referenceCount > 0")
+    int decrementReferenceCount(@Param("sha256") String sha256);
+
+    /**
+     * Delete a blob once its last reference has been dropped.
+     * 
+     * @param sha256 The SHA-256 of the content
+     * @return Number of rows deleted, 1 if the caller is to remove the stored files
+     */
+    @Modifying
+    @Query("DELETE FROM ImageBlob b WHERE b.sha256 = :sha256 AND b.referenceCount = 0")
+    int deleteUnreferenced(@Param("sha256") String sha256);
+}
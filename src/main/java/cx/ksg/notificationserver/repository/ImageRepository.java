@@ -1,10 +1,18 @@
 package cx.ksg.notificationserver.repository;
 
 import cx.ksg.notificationserver.entity.Image;
+import cx.ksg.notificationserver.entity.ImageStatus;
 import cx.ksg.notificationserver.entity.Notification;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,7 +29,7 @@ import java.util.Optional;
  * - Notification relationship queries
  */
 @Repository
-public interface ImageRepository extends JpaRepository<Image, Integer> {
+public interface ImageRepository extends JpaRepository<Image, Long> {
 
     /**
      * Find an image by its UUID.
@@ -63,6 +71,15 @@ public interface ImageRepository extends JpaRepository<Image, Integer> {
      */
     List<Image> findByNotificationId(Long notificationId);
 
+    /**
+     * Find all images for a set of notifications in a single query.
+     * Used to load the images of a whole page of notifications at once.
+     * 
+     * @param notificationIds The IDs of the notifications
+     * @return List of images associated with any of the notifications, ordered by image ID
+     */
+    List<Image> findByNotificationIdInOrderByIdAsc(Collection<Long> notificationIds);
+
     /**
      * Find all images larger than the specified size.
      * 
@@ -111,4 +128,44 @@ public interface ImageRepository extends JpaRepository<Image, Integer> {
      * @return Number of images associated with the notification
      */
     long countByNotificationId(Long notificationId);
-}
\ No newline at end of file
+
+    /**
+     * Update the processing status, final file size and generated variants of an image.
+     * Used by the background transcoder once the WebP file is written (or has failed).
+     * 
+     * @param id The ID of the image
+     * @param status The new status
+     * @param size The size of the stored file in bytes
+     * @param variants Comma separated widths of the resized variants, or null
+     * @return Number of rows updated
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE image i SET i.status = :status, i.size = :size, i.variants = :variants WHERE i.id = :id")
+    int updateStatus(@Param("id") long id, @Param("status") ImageStatus status, @Param("size") long size, @Param("variants") String variants);
+
+    /**
+     * Point an image at stored content and mark it READY.
+     * Used by the background transcoder when identical content was stored while the image was queued.
+     * 
+     * @param id The ID of the image
+     * @param path The filename of the stored content
+     * @param size The size of the stored file in bytes
+     * @param variants Comma separated widths of the resized variants, or null
+     * @return Number of rows updated, 0 if the image has been deleted
+     */
+    @Modifying
+    @Query("UPDATE image i SET i.status = cx.ksg.notificationserver.entity.ImageStatus.READY, i.path = :path, i.size = :size, i.variants = :variants WHERE i.id = :id")
+    int markStored(@Param("id") long id, @Param("path") String path, @Param("size") long size, @Param("variants") String variants);
+
+    /**
+     * Find an image by UUID and lock its row until the calling transaction ends,
+     * so its status cannot change while it is being deleted.
+     * 
+     * @param uuid The UUID of the image
+     * @return Optional containing the image if found
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT i FROM image i WHERE i.uuid = :uuid")
+    Optional<Image> findByUuidForUpdate(@Param("uuid") String uuid);
+}
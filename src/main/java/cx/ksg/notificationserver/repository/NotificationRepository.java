@@ -102,5 +102,101 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
      */
     Page<Notification> findBySendOnLessThanEqualOrderBySendOnDesc(Long toTimestamp, Pageable pageable);
 
-    List<Notification> findByIdGreaterThenIdOrderByIdDesc(long id, Limit limit);
+    /**
+     * Find notifications with an ID greater than the given ID, ordered by ID descending (newest first).
+     * Images are not fetched, use {@link ImageRepository#findByNotificationIdInOrderByIdAsc} to load them for the whole page.
+     * 
+     * @param id The exclusive lower bound of the ID
+     * @param limit Maximum number of notifications to return
+     * @return List of notifications newer than the given ID
+     */
+    List<Notification> findByIdGreaterThanOrderByIdDesc(long id, Limit limit);
+
+    /**
+     * Find notifications with an ID greater than the given ID, ordered by ID ascending (oldest first).
+     * Used for forward keyset pages, each page is one range scan on the primary key.
+     * 
+     * @param id The exclusive lower bound of the ID
+     * @param limit Maximum number of notifications to return
+     * @return List of the oldest notifications newer than the given ID
+     */
+    List<Notification> findByIdGreaterThanOrderByIdAsc(long id, Limit limit);
+
+    /**
+     * Find notifications with an ID less than the given ID, ordered by ID descending (newest first).
+     * Used for backward keyset pages through the history.
+     * 
+     * @param id The exclusive upper bound of the ID
+     * @param limit Maximum number of notifications to return
+     * @return List of the newest notifications older than the given ID
+     */
+    List<Notification> findByIdLessThanOrderByIdDesc(long id, Limit limit);
+
+    /**
+     * Find notifications from a sender with an ID greater than the given ID, ordered by ID ascending.
+     * Read as one range scan on the (from_sender, id) index.
+     * 
+     * @param from The sender
+     * @param id The exclusive lower bound of the ID
+     * @param limit Maximum number of notifications to return
+     * @return List of the sender's oldest notifications newer than the given ID
+     */
+    List<Notification> findByFromAndIdGreaterThanOrderByIdAsc(String from, long id, Limit limit);
+
+    /**
+     * Find notifications from a sender with an ID less than the given ID, ordered by ID descending.
+     * Read as one range scan on the (from_sender, id) index.
+     * 
+     * @param from The sender
+     * @param id The exclusive upper bound of the ID
+     * @param limit Maximum number of notifications to return
+     * @return List of the sender's newest notifications older than the given ID
+     */
+    List<Notification> findByFromAndIdLessThanOrderByIdDesc(String from, long id, Limit limit);
+
+    /**
+     * Find notifications sorting after (sendOn, id) up to toTimestamp, ordered by sendOn and then ID ascending.
+     * Read as one range scan on the (send_on, id) index, the sender is checked on the rows of that range.
+     * 
+     * @param sendOn The sendOn of the exclusive lower bound
+     * @param id The ID of the exclusive lower bound
+     * @param toTimestamp The inclusive upper bound of sendOn
+     * @param from The sender, or null for any sender
+     * @param limit Maximum number of notifications to return
+     * @return List of notifications following the bound
+     */
+    @Query("SELECT n FROM Notification n WHERE (n.sendOn > :sendOn OR (n.sendOn = :sendOn AND n.id > :id)) " +
+           "AND n.sendOn <= :toTimestamp AND (:from IS NULL OR n.from = :from) ORDER BY n.sendOn ASC, n.id ASC")
+    List<Notification> findBySendOnAfter(@Param("sendOn") long sendOn,
+                                         @Param("id") long id,
+                                         @Param("toTimestamp") long toTimestamp,
+                                         @Param("from") String from,
+                                         Limit limit);
+
+    /**
+     * Find notifications sorting before (sendOn, id) down to fromTimestamp, ordered by sendOn and then ID descending.
+     * Read as one range scan on the (send_on, id) index, the sender is checked on the rows of that range.
+     * 
+     * @param sendOn The sendOn of the exclusive upper bound
+     * @param id The ID of the exclusive upper bound
+     * @param fromTimestamp The inclusive lower bound of sendOn
+     * @param from The sender, or null for any sender
+     * @param limit Maximum number of notifications to return
+     * @return List of notifications preceding the bound
+     */
+    @Query("SELECT n FROM Notification n WHERE (n.sendOn < :sendOn OR (n.sendOn = :sendOn AND n.id < :id)) " +
+           "AND n.sendOn >= :fromTimestamp AND (:from IS NULL OR n.from = :from) ORDER BY n.sendOn DESC, n.id DESC")
+    List<Notification> findBySendOnBefore(@Param("sendOn") long sendOn,
+                                          @Param("id") long id,
+                                          @Param("fromTimestamp") long fromTimestamp,
+                                          @Param("from") String from,
+                                          Limit limit);
+
+    /**
+     * Find the highest notification ID.
+     * 
+     * @return The highest ID, or null if there are no notifications
+     */
+    @Query("SELECT MAX(n.id) FROM Notification n")
+    Long findMaxId();
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package cx.ksg.notificationserver.service;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HexFormat;
+
+/**
+ * Stores image files in the local storage directory.
+ * 
+ * Files are stored in a two level fan-out ({@code ab/cd/abcd....webp}), files written
+ * before the sharded layout are still found in the flat storage directory until they
+ * are moved by {@link ImageLayoutMigration}.
+ */
+@Component
+@ConditionalOnProperty(name = "notification.image.store.type", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemImageStore implements ImageStore {
+
+    @Value("${notification.image.storage-path}")
+    private String imageStoragePath;
+
+    @Override
+    public void put(String filename, Path source) throws IOException {
+        Path target = getPath(filename);
+        Files.createDirectories(target.getParent());
+        // temporary files are created under the storage directory, so this is a rename
+        // and readers never see a partially written file
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public InputStream get(String filename) throws IOException {
+        return Files.newInputStream(resolve(filename));
+    }
+
+    @Override
+    public InputStream stream(String filename, long start, long count) throws IOException {
+        InputStream is = Files.newInputStream(resolve(filename));
+        try {
+            IOUtils.skipFully(is, start);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        return new BoundedInputStream(is, count);
+    }
+
+    @Override
+    public boolean exists(String filename) {
+        return Files.exists(resolve(filename));
+    }
+
+    @Override
+    public long size(String filename) throws IOException {
+        return Files.size(resolve(filename));
+    }
+
+    @Override
+    public void delete(String filename) throws IOException {
+        // either layout, the file may not have been migrated yet
+        Files.deleteIfExists(getPath(filename));
+        Files.deleteIfExists(Paths.get(imageStoragePath, filename));
+    }
+
+    @Override
+    public String getLocation(String filename) {
+        Path relative = Paths.get(imageStoragePath).relativize(resolve(filename));
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public Path getLocalPath(String filename) {
+        return resolve(filename);
+    }
+
+    /**
+     * Finds a file in the sharded layout, falling back to the legacy flat layout.
+     */
+    private Path resolve(String filename) {
+        Path path = getPath(filename);
+        if (!Files.exists(path)) {
+            Path legacyPath = Paths.get(imageStoragePath, filename);
+            // checked after the sharded path, a concurrent migration moves files the other way
+            if (Files.exists(legacyPath)) {
+                return legacyPath;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Gets the path a file is written to in the sharded layout.
+     * 
+     * @param filename The filename of the image
+     * @return Path under the storage directory, e.g. {@code ab/cd/abcd1234.webp}
+     */
+    Path getPath(String filename) {
+        return Paths.get(imageStoragePath, getShard(filename), filename);
+    }
+
+    /**
+     * Gets the fan-out directory of a filename, two levels of 256 directories each.
+     * Content hashes and UUIDs start with random hex digits which are used as they are,
+     * so variants land next to their original; any other name is hashed first.
+     */
+    static String getShard(String filename) {
+        String prefix = filename.length() >= 4 ? filename.substring(0, 4).toLowerCase() : "";
+        if (prefix.length() < 4 || !prefix.chars().allMatch(x -> Character.digit(x, 16) >= 0)) {
+            prefix = HexFormat.of().toHexDigits(filename.hashCode());
+        }
+        return prefix.substring(0, 2) + File.separator + prefix.substring(2, 4);
+    }
+}
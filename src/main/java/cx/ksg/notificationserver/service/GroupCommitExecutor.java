@@ -0,0 +1,323 @@
+package cx.ksg.notificationserver.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Group commit for small write transactions.
+ * 
+ * Work submitted by concurrent callers is collected for up to window-micros (or until
+ * max-batch-size units are waiting) and run by a single writer thread in one transaction,
+ * so a burst of creates pays for one commit instead of one each. Each caller's future
+ * completes only after the shared commit. While a group commits, the next one fills up,
+ * so the group size grows with the number of concurrent callers.
+ * 
+ * If the shared transaction fails, every unit of the group is retried in a transaction of
+ * its own, so one failing unit does not fail the others. Work must therefore be safe to run
+ * again after a rollback, and should not do slow I/O, which would hold up every caller.
+ * 
+ * After-commit callbacks the work registers, such as {@code @TransactionalEventListener}
+ * listeners, are taken off the writer and run on the caller's thread once its future has
+ * completed, so stream fan-out and long-poll wakeups do not delay the next group.
+ * 
+ * Callers wait at most timeout-millis for their unit to start. A unit that has not started
+ * by then is cancelled and never runs. One that has started is waited for, so a caller only
+ * sees a failure once its work is known not to have committed. If the writer thread dies,
+ * pending and later units fail instead of waiting.
+ */
+@Component
+public class GroupCommitExecutor implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitExecutor.class);
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${notification.create.group-commit.enabled:false}")
+    private boolean enabled;
+
+    @Value("${notification.create.group-commit.window-micros:1000}")
+    private long windowMicros;
+
+    @Value("${notification.create.group-commit.max-batch-size:100}")
+    private int maxBatchSize;
+
+    @Value("${notification.create.group-commit.timeout-millis:30000}")
+    private long timeoutMillis;
+
+    private final BlockingQueue<Unit<?>> queue = new LinkedBlockingQueue<>();
+
+    private TransactionTemplate transaction;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    private DistributionSummary groupSize;
+
+    /**
+     * @return true if group commit is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs work in the transaction of the next group and waits for it to commit.
+     * 
+     * @param work The work, run on the writer thread inside the shared transaction
+     * @return The result of the work, once its transaction has committed and its
+     *         after-commit callbacks have run
+     * @throws RuntimeException the exception thrown by the work, or by the commit
+     * @throws IllegalStateException if the writer is not running or the work did not
+     *         start within timeout-millis; the work has not committed and will not run
+     */
+    public <T> T execute(Supplier<T> work) {
+        if (!running) {
+            throw new IllegalStateException("group commit writer is not running");
+        }
+
+        Unit<T> unit = new Unit<>(work);
+        queue.add(unit);
+        // The writer may have stopped after the check, before taking the unit
+        if (!running && queue.remove(unit)) {
+            throw new IllegalStateException("group commit writer is not running");
+        }
+
+        T result;
+        try {
+            result = unit.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (TimeoutException | InterruptedException e) {
+            boolean interrupted = e instanceof InterruptedException;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (unit.cancel()) {
+                throw interrupted
+                    ? new IllegalStateException("interrupted while waiting for group commit", e)
+                    : new IllegalStateException("group commit did not start within " + timeoutMillis + " ms");
+            }
+            // Already started, the caller must not clean up before the outcome is known
+            try {
+                result = unit.future.join();
+            } catch (CompletionException joinException) {
+                throw rethrow(joinException.getCause());
+            }
+        }
+
+        unit.afterCommit();
+        return result;
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private void run() {
+        List<Unit<?>> group = new ArrayList<>(maxBatchSize);
+        try {
+            while (running) {
+                try {
+                    group.add(queue.take());
+                    long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(windowMicros);
+                    while (group.size() < maxBatchSize) {
+                        Unit<?> unit = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (unit == null) {
+                            break;
+                        }
+                        group.add(unit);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                try {
+                    commit(group);
+                } catch (Throwable e) {
+                    // Errors included, the writer must outlive a failed group or every caller hangs
+                    logger.error("Group commit of {} failed", group.size(), e);
+                    group.forEach(x -> x.future.completeExceptionally(e));
+                }
+                group.clear();
+            }
+        } finally {
+            // Fail anything left behind on shutdown, or if the writer dies
+            running = false;
+            group.addAll(queue);
+            queue.clear();
+            for (Unit<?> unit : group) {
+                unit.future.completeExceptionally(new IllegalStateException("group commit writer stopped"));
+            }
+        }
+    }
+
+    private void commit(List<Unit<?>> group) {
+        // Callers that timed out before their unit started
+        group.removeIf(x -> !x.start());
+        if (group.isEmpty()) {
+            return;
+        }
+        groupSize.record(group.size());
+        try {
+            transaction.executeWithoutResult(status -> group.forEach(Unit::run));
+            group.forEach(Unit::complete);
+            return;
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                group.get(0).future.completeExceptionally(e);
+                return;
+            }
+            logger.warn("Group commit of {} failed, retrying one by one", group.size(), e);
+        }
+
+        for (Unit<?> unit : group) {
+            try {
+                transaction.executeWithoutResult(status -> unit.run());
+                unit.complete();
+            } catch (RuntimeException e) {
+                unit.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        transaction = new TransactionTemplate(transactionManager);
+        groupSize = DistributionSummary.builder("notification.create.group-commit.size")
+            .description("Number of creates committed together")
+            .register(meterRegistry);
+
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::run, "notification-group-commit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.interrupt();
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private static final class Unit<T> {
+        private final Supplier<T> work;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        // set by whichever comes first, the writer starting the unit or the caller cancelling it
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private T result;
+        private List<TransactionSynchronization> synchronizations = List.of();
+
+        private Unit(Supplier<T> work) {
+            this.work = work;
+        }
+
+        private boolean start() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        private boolean cancel() {
+            if (!claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            future.cancel(false);
+            return true;
+        }
+
+        private void run() {
+            List<TransactionSynchronization> before = TransactionSynchronizationManager.getSynchronizations();
+            result = work.get();
+
+            // Take the synchronizations the work registered out of the shared transaction,
+            // only the before-commit and rollback callbacks still run on the writer
+            List<TransactionSynchronization> registered = new ArrayList<>(TransactionSynchronizationManager.getSynchronizations());
+            registered.removeAll(before);
+            TransactionSynchronizationManager.clearSynchronization();
+            TransactionSynchronizationManager.initSynchronization();
+            before.forEach(TransactionSynchronizationManager::registerSynchronization);
+            if (!registered.isEmpty()) {
+                TransactionSynchronizationManager.registerSynchronization(new BeforeCommit(registered));
+            }
+            synchronizations = registered;
+        }
+
+        // only after the commit, so callers never see uncommitted results
+        private void complete() {
+            future.complete(result);
+        }
+
+        // on the caller's thread
+        private void afterCommit() {
+            try {
+                TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+            } finally {
+                TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+            }
+        }
+    }
+
+    /**
+     * Runs the callbacks of a unit's synchronizations that belong inside the shared
+     * transaction, the after-commit ones are left to the unit's caller.
+     */
+    private record BeforeCommit(List<TransactionSynchronization> synchronizations) implements TransactionSynchronization {
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            synchronizations.forEach(x -> x.beforeCommit(readOnly));
+        }
+
+        @Override
+        public void beforeCompletion() {
+            synchronizations.forEach(TransactionSynchronization::beforeCompletion);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != STATUS_COMMITTED) {
+                TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, status);
+            }
+        }
+    }
+}
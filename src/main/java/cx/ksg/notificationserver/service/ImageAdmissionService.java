@@ -0,0 +1,123 @@
+package cx.ksg.notificationserver.service;
+
+import cx.ksg.notificationserver.exception.AdmissionRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control for image uploads.
+ * 
+ * Every create request reserves the estimated decoded size of its images, from the
+ * dimensions read from their headers during validation, from a fixed memory budget. The reservation is held until all of its
+ * images have been transcoded. A request that does not fit waits in FIFO order for up to
+ * max-wait-millis and is then rejected with HTTP 503 and Retry-After.
+ * 
+ * The budget is kept in KiB units. A single request larger than the whole budget is
+ * clamped to it, so it can still run on its own.
+ */
+@Service
+public class ImageAdmissionService implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageAdmissionService.class);
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${notification.image.admission.memory-budget-mb:128}")
+    private int memoryBudgetMb;
+
+    @Value("${notification.image.admission.max-wait-millis:2000}")
+    private long maxWaitMillis;
+
+    @Value("${notification.image.admission.retry-after-seconds:5}")
+    private long retryAfterSeconds;
+
+    private int budgetKb;
+
+    private Semaphore budget;
+
+    private Counter rejections;
+
+    /**
+     * Reserves memory for decoding the given images, waiting if the budget is exhausted.
+     * 
+     * @param images The validated uploads
+     * @return The reservation, to be released once the images have been processed
+     * @throws AdmissionRejectedException if the budget does not free up within max-wait-millis
+     */
+    public Permit admit(List<ImageService.ValidatedImage> images) {
+        long bytes = 0;
+        for (ImageService.ValidatedImage image : images) {
+            bytes += imageService.estimateDecodedSize(image);
+        }
+
+        int kb = (int) Math.min(budgetKb, (bytes + 1023) / 1024);
+        if (kb == 0) {
+            return new Permit(0);
+        }
+
+        boolean acquired;
+        try {
+            acquired = budget.tryAcquire(kb, maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            rejections.increment();
+            logger.warn("Rejected upload of {} KiB, image memory budget exhausted", kb);
+            throw new AdmissionRejectedException("Server is busy processing images, please retry later", retryAfterSeconds);
+        }
+        return new Permit(kb);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        budgetKb = memoryBudgetMb * 1024;
+        budget = new Semaphore(budgetKb, true);
+
+        rejections = Counter.builder("notification.image.admission.rejected")
+            .description("Create requests rejected because the image memory budget was exhausted")
+            .register(meterRegistry);
+        Gauge.builder("notification.image.admission.queued", budget, Semaphore::getQueueLength)
+            .description("Create requests waiting for image memory budget")
+            .register(meterRegistry);
+        Gauge.builder("notification.image.admission.available", budget, x -> x.availablePermits() * 1024.0)
+            .description("Unreserved image memory budget")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    /**
+     * A reservation of image memory budget. Releasing is idempotent.
+     */
+    public final class Permit {
+        private final int kb;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int kb) {
+            this.kb = kb;
+        }
+
+        public void release() {
+            if (kb > 0 && released.compareAndSet(false, true)) {
+                budget.release(kb);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cx.ksg.notificationserver.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves image files from the flat storage directory into the sharded layout.
+ * 
+ * Started with the --migrate-image-layout command line option or
+ * notification.image.layout-migration.enabled, and runs on a background thread while the
+ * server keeps serving: files are moved with an atomic rename in batches, with a pause
+ * between batches to limit the I/O taken from live traffic. Reads resolve both layouts
+ * (see {@link FileSystemImageStore}), so a file is reachable before and after its move.
+ * Running it again after an interruption continues with the files that are left.
+ */
+@Component
+@ConditionalOnProperty(name = "notification.image.store.type", havingValue = "filesystem", matchIfMissing = true)
+public class ImageLayoutMigration implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageLayoutMigration.class);
+
+    public static final String MIGRATE_OPTION = "migrate-image-layout";
+
+    @Autowired
+    private FileSystemImageStore fileSystemImageStore;
+
+    @Value("${notification.image.storage-path}")
+    private String imageStoragePath;
+
+    @Value("${notification.image.layout-migration.enabled:false}")
+    private boolean enabled;
+
+    @Value("${notification.image.layout-migration.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${notification.image.layout-migration.batch-delay-millis:100}")
+    private long batchDelayMillis;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled && !args.containsOption(MIGRATE_OPTION)) {
+            return;
+        }
+
+        Thread thread = new Thread(this::migrate, "image-layout-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Moves every file left in the flat storage directory to its shard.
+     * 
+     * @return Number of files moved
+     */
+    public long migrate() {
+        logger.info("Image layout migration started");
+        long moved = 0;
+        try {
+            List<Path> batch;
+            while (!(batch = nextBatch()).isEmpty()) {
+                for (Path source : batch) {
+                    if (move(source)) {
+                        moved++;
+                    }
+                }
+                logger.info("Image layout migration moved {} files", moved);
+                Thread.sleep(batchDelayMillis);
+            }
+            logger.info("Image layout migration finished, {} files moved", moved);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Image layout migration interrupted after {} files", moved);
+        } catch (IOException e) {
+            logger.error("Image layout migration failed after {} files", moved, e);
+        }
+        return moved;
+    }
+
+    /**
+     * Lists up to batchSize files still in the flat directory. Directories (the shards,
+     * staging and the resize cache) and hidden files are skipped.
+     */
+    private List<Path> nextBatch() throws IOException {
+        List<Path> batch = new ArrayList<>(batchSize);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(imageStoragePath))) {
+            for (Path path : stream) {
+                if (!Files.isRegularFile(path) || path.getFileName().toString().startsWith(".")) {
+                    continue;
+                }
+                batch.add(path);
+                if (batch.size() >= batchSize) {
+                    break;
+                }
+            }
+        }
+        return batch;
+    }
+
+    private boolean move(Path source) throws IOException {
+        Path target = fileSystemImageStore.getPath(source.getFileName().toString());
+        Files.createDirectories(target.getParent());
+        // An atomic rename silently replaces an existing target, so check first. A file
+        // written again in the sharded layout since has the same name and so the same content
+        if (Files.exists(target)) {
+            Files.deleteIfExists(source);
+            return false;
+        }
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            // deleted since it was listed
+            return false;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package cx.ksg.notificationserver.service;
+
+import cx.ksg.notificationserver.config.ImageTranscodeConfig;
+import cx.ksg.notificationserver.dto.ImageDto;
+import cx.ksg.notificationserver.event.ImageDeletedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Disk-backed LRU cache of images resized on demand.
+ * 
+ * GET /image/{uuid} with w, h and/or q is resized on first request and the result kept in
+ * the resize cache directory under the local storage path, also with an object store backend. The cache is bounded by a byte budget,
+ * least recently used files are deleted once it is exceeded. Concurrent requests for the
+ * same variant wait for a single resize. On startup the directory is scanned so the cache
+ * survives restarts, ordered by file modification time.
+ * 
+ * Requested sizes are snapped up to the next of a few fixed steps (sizes and qualities),
+ * so arbitrary w/h/q values cannot fill the cache with near-identical copies. Files are
+ * opened before they are looked up in the index, and evicted files are deleted while
+ * readers may still hold them open, which keeps their content readable on POSIX systems.
+ * When the stored file of an image is deleted, its resized copies are deleted with it.
+ */
+@Component
+public class ImageResizeCache implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageResizeCache.class);
+
+    private static final String CACHE_DIRECTORY = ".resize-cache";
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @Autowired
+    @Qualifier(ImageTranscodeConfig.IMAGE_TRANSCODE_EXECUTOR)
+    private Executor imageTranscodeExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${notification.image.storage-path}")
+    private String imageStoragePath;
+
+    @Value("${notification.image.resize-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${notification.image.resize-cache.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    // Widths and heights served, a request is snapped up to the next one
+    @Value("${notification.image.resize-cache.sizes:64,128,256,512,1024,2048}")
+    private int[] sizes;
+
+    // WebP qualities served, a request is snapped up to the next one
+    @Value("${notification.image.resize-cache.qualities:50,75,90}")
+    private int[] qualities;
+
+    private Path cacheDirectory;
+
+    // filename -> size in bytes, in access order, guarded by lock
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // not synchronized, a virtual thread blocked on a monitor pins its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long bytesStored;
+
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    private Counter hits;
+
+    private Counter misses;
+
+    /**
+     * @return true if on-demand resizing is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * A resized file, opened for reading. It stays readable until closed, even if it is
+     * evicted in the meantime.
+     * 
+     * @param name The filename in the cache directory
+     * @param channel The open file
+     * @param lastModified When the file was written, in epoch milliseconds
+     */
+    public record CachedFile(String name, FileChannel channel, long lastModified) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Gets the resized file for an image, resizing it if it is not cached yet.
+     * The image is fitted inside width x height keeping its aspect ratio and is never enlarged.
+     * Width, height and quality are snapped up to the next configured step.
+     * 
+     * @param image The image, must be READY
+     * @param width The maximum width, or null
+     * @param height The maximum height, or null
+     * @param quality The WebP quality between 1 and 100, or null for the encoder default
+     * @return The opened resized file, to be closed by the caller
+     * @throws IOException if the original cannot be read or the resized image cannot be written
+     */
+    public CachedFile get(ImageDto image, Integer width, Integer height, Integer quality) throws IOException {
+        Integer w = snap(width, sizes);
+        Integer h = snap(height, sizes);
+        Integer q = snap(quality, qualities);
+        // Keyed by the stored file, images sharing deduplicated content share their resized copies
+        String filename = prefix(image.getFilename()) + w + "_h" + h + "_q" + q + ".webp";
+
+        // A file evicted after another request resized it is resized again
+        while (true) {
+            CachedFile cached = open(filename);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+
+            // Only the first request for a variant resizes it, the others wait for its result
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            CompletableFuture<Void> existing = inFlight.putIfAbsent(filename, future);
+            if (existing != null) {
+                join(existing);
+                continue;
+            }
+
+            try {
+                // Finished by another request between the lookup and the registration
+                cached = open(filename);
+                if (cached != null) {
+                    hits.increment();
+                    return cached;
+                }
+
+                misses.increment();
+                // Decoding and encoding run on the transcode pool: the WebP codec is native code,
+                // which would pin the carrier of a virtual request thread for the whole resize
+                cached = join(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return resize(image, filename, w, h, q);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, imageTranscodeExecutor));
+                return cached;
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                future.complete(null);
+                inFlight.remove(filename);
+            }
+        }
+    }
+
+    /**
+     * Opens a cached file.
+     * 
+     * @return the opened file, or null if it is not cached or has just been evicted
+     */
+    private CachedFile open(String filename) throws IOException {
+        if (!isCached(filename)) {
+            return null;
+        }
+        Path path = cacheDirectory.resolve(filename);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            return new CachedFile(filename, channel, Files.getLastModifiedTime(path).toMillis());
+        } catch (NoSuchFileException e) {
+            channel.close();
+            return null;
+        }
+    }
+
+    private CachedFile resize(ImageDto image, String filename, Integer width, Integer height, Integer quality) throws IOException {
+        BufferedImage source;
+        try (InputStream is = imageStore.get(image.getFilename())) {
+            source = ImageIO.read(is);
+        }
+        if (source == null) {
+            throw new IOException("image could not be decoded " + image.getUuid());
+        }
+
+        double scale = 1.0;
+        if (width != null) {
+            scale = Math.min(scale, (double) width / source.getWidth());
+        }
+        if (height != null) {
+            scale = Math.min(scale, (double) height / source.getHeight());
+        }
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * scale));
+
+        BufferedImage resized = targetWidth < source.getWidth() ? imageService.resize(source, targetWidth) : source;
+        Path path = cacheDirectory.resolve(filename);
+        imageService.writeWebp(resized, image.getUuid(), path, quality == null ? null : quality / 100f);
+
+        // Opened before it is indexed, so it cannot be evicted before the caller reads it
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        CachedFile cached = new CachedFile(filename, channel, Files.getLastModifiedTime(path).toMillis());
+        add(filename, channel.size());
+        return cached;
+    }
+
+    private boolean isCached(String filename) {
+        lock.lock();
+        try {
+            return entries.get(filename) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(String filename, long size) {
+        List<String> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            Long previous = entries.put(filename, size);
+            bytesStored += size - (previous == null ? 0 : previous);
+
+            long maxBytes = maxSizeMb * 1024 * 1024;
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (bytesStored > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(filename)) {
+                    continue;
+                }
+                bytesStored -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        delete(evicted);
+    }
+
+    /**
+     * Deletes the resized copies of an image whose stored file has been deleted. Copies
+     * of content still used by other images are kept.
+     */
+    @TransactionalEventListener
+    public void onImageDeleted(ImageDeletedEvent event) {
+        if (!enabled || !event.isContentDeleted()) {
+            return;
+        }
+
+        String prefix = prefix(event.getFilename());
+        List<String> removed = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    bytesStored -= entry.getValue();
+                    removed.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        delete(removed);
+    }
+
+    // Outside the lock, readers holding a file open can still read it
+    private void delete(List<String> filenames) {
+        for (String name : filenames) {
+            try {
+                Files.deleteIfExists(cacheDirectory.resolve(name));
+            } catch (IOException e) {
+                logger.warn("Failed to delete resize cache file: {}", name, e);
+            }
+        }
+    }
+
+    // Resized copies of a stored file are named after it, followed by _w<width>_h<height>_q<quality>
+    private static String prefix(String stored) {
+        return stored.substring(0, stored.lastIndexOf('.')) + "_w";
+    }
+
+    // The smallest step at least as large as the value, or the largest step
+    private static Integer snap(Integer value, int[] steps) {
+        if (value == null) {
+            return null;
+        }
+        for (int step : steps) {
+            if (step >= value) {
+                return step;
+            }
+        }
+        return steps[steps.length - 1];
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of bytes currently stored in the cache directory
+     */
+    public long getBytesStored() {
+        lock.lock();
+        try {
+            return bytesStored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        hits = Counter.builder("notification.image.resize.requests").tag("result", "hit")
+            .description("On-demand image resize requests")
+            .register(meterRegistry);
+        misses = Counter.builder("notification.image.resize.requests").tag("result", "miss")
+            .description("On-demand image resize requests")
+            .register(meterRegistry);
+        Gauge.builder("notification.image.resize.stored", this, ImageResizeCache::getBytesStored)
+            .description("Bytes stored in the on-demand resize cache")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+
+        if (!enabled) {
+            return;
+        }
+        if (sizes.length == 0 || qualities.length == 0) {
+            throw new IllegalStateException("notification.image.resize-cache.sizes and qualities cannot be empty");
+        }
+        sizes = IntStream.of(sizes).filter(x -> x > 0).sorted().distinct().toArray();
+        qualities = IntStream.of(qualities).map(x -> Math.max(1, Math.min(x, 100))).sorted().distinct().toArray();
+
+        cacheDirectory = Paths.get(imageStoragePath, CACHE_DIRECTORY);
+        Files.createDirectories(cacheDirectory);
+
+        // Rebuild the index from the files left by the previous run, oldest first
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(cacheDirectory)) {
+            files = stream.filter(Files::isRegularFile)
+                .sorted(Comparator.comparingLong(ImageResizeCache::lastModified))
+                .toList();
+        }
+        for (Path file : files) {
+            add(file.getFileName().toString(), Files.size(file));
+        }
+        logger.info("Loaded {} files ({} bytes) into the resize cache", entries.size(), bytesStored);
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,50 +1,95 @@
 package cx.ksg.notificationserver.service;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.luciad.imageio.webp.WebPReadParam;
+import com.luciad.imageio.webp.WebPWriteParam;
 
+import cx.ksg.notificationserver.config.ImageTranscodeConfig;
 import cx.ksg.notificationserver.dto.ImageDto;
 import cx.ksg.notificationserver.entity.Image;
+import cx.ksg.notificationserver.entity.ImageBlob;
+import cx.ksg.notificationserver.entity.ImageStatus;
 import cx.ksg.notificationserver.entity.Notification;
+import cx.ksg.notificationserver.event.ImageDeletedEvent;
+import cx.ksg.notificationserver.event.ImageStatusChangedEvent;
 import cx.ksg.notificationserver.exception.InvalidImageException;
+import cx.ksg.notificationserver.repository.ImageBlobRepository;
 import cx.ksg.notificationserver.repository.ImageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.transaction.Transactional;
 
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service for handling image file operations in the notification system.
  * 
  * This service provides functionality to:
- * - Save uploaded image files to the configured storage directory
+ * - Stage uploaded image files and transcode them to WebP on a background pool
+ * - Deduplicate uploads by content, identical images share one stored file
  * - Validate image file types and sizes
  * - Generate unique filenames to prevent conflicts
  * - Create storage directories if they don't exist
- * - Retrieve full paths to stored images
+ * - Hand finished files to the configured {@link ImageStore}
  * 
  * The image storage path is configurable via application.yaml property:
  * notification.image-storage-path
@@ -68,68 +113,682 @@ public class ImageService implements InitializingBean {
     @Value("${notification.image.storage-path}")
     private String imageStoragePath;
 
+    // Widths of the resized copies generated for every image
+    @Value("${notification.image.variant-widths:128,512}")
+    private int[] variantWidths;
+
+    // Maximum width x height accepted, checked from the header before decoding
+    @Value("${notification.image.max-pixels:40000000}")
+    private long maxPixels;
+
+    // Decoded rasters are at most 4 bytes per pixel (ARGB)
+    private static final int DECODED_BYTES_PER_PIXEL = 4;
+
+    // Raw uploads waiting for the transcode pool, relative to the storage path
+    private static final String STAGING_DIRECTORY = ".staging";
+
+    // Number of locks guarding the stored files of a content hash
+    private static final int BLOB_LOCK_STRIPES = 256;
+
     @Autowired
     private ImageRepository imageRepository;
 
-    @Transactional
-    Image save(Notification notification, MultipartFile multipartFile) throws IOException, InvalidImageException
-    {
-        if (multipartFile == null || multipartFile.isEmpty()) {
-            throw new IllegalArgumentException("image is null or empty");
-        }
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
 
-        // Validate the image file
-        if (!validateImageFile(multipartFile)) {
-            logger.warn("Invalid image file rejected: {}", multipartFile.getOriginalFilename());
-            throw new InvalidImageException("image is not valid " + multipartFile.getOriginalFilename());
-        }
+    @Autowired
+    private ImageStore imageStore;
 
-        BufferedImage bufferedImage;
-        try(InputStream is = multipartFile.getInputStream())
-        {
-            bufferedImage = ImageIO.read(is);
-        }
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
-        // Generate unique filename
-        String filename = generateUniqueFilename(multipartFile.getOriginalFilename(), "webp");
+    // Always a new transaction: transcodes are submitted from afterCommit, where the
+    // committed create transaction is still bound to the thread and must not be joined
+    private TransactionTemplate transaction;
 
-        byte[] webpBytes;
-        try(ByteArrayOutputStream baos = new ByteArrayOutputStream())
+    // Identical uploads transcoding on this node at the same time wait here and reuse the
+    // first result. Only an optimization, other nodes share the store: reference counts are
+    // only changed in the database, and each upload writes files named after its own UUID
+    private final ReentrantLock[] blobLocks = new ReentrantLock[BLOB_LOCK_STRIPES];
+
+    private Counter deduplicatedCounter;
+
+    @Autowired
+    @Qualifier(ImageTranscodeConfig.IMAGE_TRANSCODE_EXECUTOR)
+    private Executor imageTranscodeExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${notification.image.transcode.max-parallel-per-request:4}")
+    private int maxParallelPerRequest;
+
+    @Value("${notification.image.metadata-cache-size:10000}")
+    private long metadataCacheSize;
+
+    @Value("${notification.image.metadata-cache-ttl-seconds:30}")
+    private long metadataCacheTtlSeconds;
+
+    // uuid -> image metadata, Optional.empty() for unknown uuids
+    private Cache<String, Optional<ImageDto>> imageMetadataCache;
+
+    /**
+     * An upload that has been validated, hashed and copied to the staging directory.
+     */
+    record StagedUpload(String uuid, String sha256) {
+    }
+
+    /**
+     * An upload that has passed {@link #validateImage}, with the dimensions read from its
+     * header, so admission and staging do not parse the header again.
+     */
+    public record ValidatedImage(MultipartFile file, int width, int height) {
+    }
+
+    /**
+     * Hashes a validated upload and copies it to the staging directory in one pass.
+     * Runs before the create transaction, so no connection, and with group commit no
+     * shared writer, waits for upload I/O. The multipart temp file is removed as soon as
+     * the request completes, the staged copy stays until the image is transcoded.
+     * 
+     * @return The staged upload, to be passed to {@link #stage} and removed with
+     *         {@link #discard} if the notification is not created
+     */
+    StagedUpload prepare(ValidatedImage image) throws IOException
+    {
+        String uuid = UUID.randomUUID().toString();
+        MessageDigest digest = newDigest();
+        try(InputStream is = new DigestInputStream(image.file().getInputStream(), digest))
         {
-            ImageIO.write(bufferedImage, "webp", baos);
-            webpBytes = baos.toByteArray();
+            Files.copy(is, getStagingPath(uuid));
         }
-        
-        // Save the file
-        Path targetPath = Paths.get(imageStoragePath, filename);
-        FileUtils.writeByteArrayToFile(targetPath.toFile(), webpBytes);
-        
-        logger.info("Successfully saved image: {}", filename);
+        catch (IOException e)
+        {
+            deleteStagedUpload(uuid);
+            throw e;
+        }
+        return new StagedUpload(uuid, HexFormat.of().formatHex(digest.digest()));
+    }
 
+    /**
+     * Removes the staged copies of uploads whose notification was not created.
+     */
+    void discard(List<StagedUpload> uploads)
+    {
+        uploads.forEach(x -> deleteStagedUpload(x.uuid()));
+    }
+
+    /**
+     * Creates the image row of a staged upload, in the caller's transaction.
+     * Does not touch the staged file, so it can be run again after a rollback.
+     */
+    @Transactional
+    Image stage(Notification notification, StagedUpload upload)
+    {
         Image image = new Image();
-        image.setPath(filename);
-        image.setSize(webpBytes.length);
+        image.setUuid(upload.uuid());
+        image.setSha256(upload.sha256());
         image.setContentType("image/webp");
         image.setNotification(notification);
 
+        // Same content stored before: share its files, nothing to transcode.
+        // The row stays locked until the notification commits, so it cannot be released meanwhile
+        ImageBlob blob = imageBlobRepository.incrementReferenceCount(upload.sha256()) > 0
+            ? imageBlobRepository.findById(upload.sha256()).orElse(null)
+            : null;
+        if (blob != null) {
+            image.setPath(blob.getPath());
+            image.setSize(blob.getSize());
+            image.setVariants(blob.getVariants());
+            image.setStatus(ImageStatus.READY);
+            deduplicatedCounter.increment();
+        } else {
+            image.setPath(generateUniqueFilename(upload.uuid(), "webp"));
+            image.setSize(0);
+            image.setStatus(ImageStatus.PENDING);
+        }
+
         image = imageRepository.save(image);
         return image;
     }
 
+    /**
+     * Hands staged images to the transcode pool once the current transaction has committed,
+     * so no database connection is held while images are decoded and encoded. Staged copies
+     * of deduplicated images are removed at the same time. An ImageStatusChangedEvent is
+     * published once each pending image is READY or FAILED.
+     * Nothing happens on rollback, the caller discards the staged uploads once it gives up,
+     * as a group commit may still retry the notification in a transaction of its own.
+     * 
+     * @param images The images returned by {@link #stage}, deduplicated ones are already READY
+     * @param onComplete Run once every image has been transcoded
+     */
+    void scheduleTranscode(List<Image> images, Runnable onComplete)
+    {
+        long notificationId = images.isEmpty() ? 0 : images.get(0).getNotification().getId();
+        List<ImageDto> pending = images.stream()
+            .filter(x -> x.getStatus() == ImageStatus.PENDING)
+            .map(ImageDto::fromImage)
+            .toList();
+        List<String> deduplicated = images.stream()
+            .filter(x -> x.getStatus() != ImageStatus.PENDING)
+            .map(Image::getUuid)
+            .toList();
+        Runnable submit = () -> {
+            deduplicated.forEach(this::deleteStagedUpload);
+            if (pending.isEmpty()) {
+                onComplete.run();
+            } else {
+                submitTranscodes(notificationId, pending, onComplete);
+            }
+        };
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit.run();
+            }
+        });
+    }
+
+    /**
+     * Transcodes the images of one notification in parallel, using at most
+     * maxParallelPerRequest workers so a single large post cannot take over the pool.
+     * If the pool rejects every worker the images are marked FAILED, the transcode never
+     * runs on the calling thread, which may be inside a commit callback.
+     */
+    private void submitTranscodes(long notificationId, List<ImageDto> images, Runnable onComplete)
+    {
+        Queue<ImageDto> queue = new ConcurrentLinkedQueue<>(images);
+        AtomicInteger remaining = new AtomicInteger(images.size());
+        Runnable worker = () -> {
+            ImageDto image;
+            while ((image = queue.poll()) != null) {
+                transcode(notificationId, image);
+                if (remaining.decrementAndGet() == 0) {
+                    onComplete.run();
+                }
+            }
+        };
+
+        int workers = Math.min(images.size(), Math.max(1, maxParallelPerRequest));
+        int started = 0;
+        for (int i = 0; i < workers; i++) {
+            try {
+                imageTranscodeExecutor.execute(worker);
+                started++;
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        if (started > 0) {
+            return;
+        }
+
+        // The started workers drain the queue, with none the images are given up
+        ImageDto image;
+        while ((image = queue.poll()) != null) {
+            logger.warn("Transcode pool is full, image {} marked as failed", image.getUuid());
+            markFailed(notificationId, image);
+            deleteStagedUpload(image.getUuid());
+            if (remaining.decrementAndGet() == 0) {
+                onComplete.run();
+            }
+        }
+    }
+
+    private void markFailed(long notificationId, ImageDto image)
+    {
+        try {
+            transaction.executeWithoutResult(status -> {
+                if (imageRepository.updateStatus(image.getId(), ImageStatus.FAILED, 0, null) > 0) {
+                    publishStatus(notificationId, image, ImageStatus.FAILED, image.getFilename(), 0, null);
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.error("Failed to mark image as failed: {}", image.getUuid(), e);
+        }
+    }
+
+    /**
+     * Tells listeners such as the recent notification cache that a pending image has
+     * settled, so they stop serving it as PENDING. Must run in the transaction that
+     * updated the status.
+     */
+    private void publishStatus(long notificationId, ImageDto image, ImageStatus status, String filename, long size, String variants)
+    {
+        ImageDto updated = new ImageDto(image.getId(), image.getUuid(), filename, image.getContentType(), size, status);
+        updated.setSha256(image.getSha256());
+        updated.setVariants(ImageDto.parseVariants(variants));
+        eventPublisher.publishEvent(new ImageStatusChangedEvent(notificationId, updated));
+    }
 
     /**
-     * Gets the full file system path to an image file.
+     * Decodes a staged upload, writes it as WebP to the storage directory and marks the image row READY.
+     * If identical content was stored while the upload was queued, here or on another node,
+     * its files are reused instead and the files written for this upload are removed.
+     * Runs on the transcode pool.
      * 
-     * @param filename The filename of the image (as stored in database)
-     * @return Full path to the image file
+     * @param notificationId The notification the image belongs to
+     * @param image The pending image
      */
-    public String getImagePath(String filename) {
-        if (filename == null || filename.trim().isEmpty()) {
+    void transcode(long notificationId, ImageDto image)
+    {
+        Path stagingPath = getStagingPath(image.getUuid());
+        ReentrantLock lock = getBlobLock(image.getSha256());
+        // Files written for this upload, removed again unless the image ends up referencing them
+        boolean written = false;
+        boolean referenced = false;
+        List<Integer> variants = new ArrayList<>();
+        lock.lock();
+        try
+        {
+            if (Boolean.TRUE.equals(transaction.execute(status -> reuseBlob(status, notificationId, image)))) {
+                deduplicatedCounter.increment();
+                logger.info("Reused stored content for image: {}", image.getUuid());
+                return;
+            }
+
+            // Decoded straight from the staged file, the raster is the only full copy on heap
+            BufferedImage bufferedImage = ImageIO.read(stagingPath.toFile());
+            if (bufferedImage == null) {
+                throw new InvalidImageException("image could not be decoded " + image.getUuid());
+            }
+
+            // Save the file
+            written = true;
+            long size = storeWebp(bufferedImage, image.getUuid(), image.getFilename());
+
+            // Smaller copies for list views, only for widths below the original
+            for (int width : variantWidths) {
+                if (width <= 0 || width >= bufferedImage.getWidth()) {
+                    continue;
+                }
+                variants.add(width);
+                storeWebp(resize(bufferedImage, width), image.getUuid(), getVariantFilename(image.getFilename(), width));
+            }
+
+            String formattedVariants = ImageDto.formatVariants(variants);
+            Boolean stored;
+            try {
+                stored = transaction.execute(status -> {
+                    if (imageRepository.updateStatus(image.getId(), ImageStatus.READY, size, formattedVariants) == 0) {
+                        // image deleted while transcoding, nothing references the files
+                        return false;
+                    }
+                    imageBlobRepository.insert(image.getSha256(), image.getFilename(), size, formattedVariants);
+                    publishStatus(notificationId, image, ImageStatus.READY, image.getFilename(), size, formattedVariants);
+                    return true;
+                });
+            } catch (DataIntegrityViolationException e) {
+                // Another node stored the same content first, reference its files instead
+                if (!Boolean.TRUE.equals(transaction.execute(status -> reuseBlob(status, notificationId, image)))) {
+                    throw e;
+                }
+                deduplicatedCounter.increment();
+                logger.info("Content of image {} was stored concurrently, reusing it", image.getUuid());
+                return;
+            }
+            referenced = Boolean.TRUE.equals(stored);
+            if (referenced) {
+                logger.info("Successfully saved image: {} with variants {}", image.getFilename(), variants);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.error("Failed to transcode image: {}", image.getUuid(), e);
+            markFailed(notificationId, image);
+        }
+        finally
+        {
+            lock.unlock();
+            if (written && !referenced) {
+                deleteStoredFiles(image.getFilename(), variants);
+            }
+            deleteStagedUpload(image.getUuid());
+        }
+    }
+
+    /**
+     * Points a pending image at stored content with the same hash, taking a reference on it.
+     * Must run in a transaction. The reference is taken first, so a concurrent delete of the
+     * last reference either completes before, and the content counts as not stored, or waits.
+     * 
+     * @return true if the content was already stored
+     */
+    private boolean reuseBlob(TransactionStatus status, long notificationId, ImageDto image)
+    {
+        if (imageBlobRepository.incrementReferenceCount(image.getSha256()) == 0) {
+            return false;
+        }
+        ImageBlob blob = imageBlobRepository.findById(image.getSha256()).orElseThrow();
+        if (imageRepository.markStored(image.getId(), blob.getPath(), blob.getSize(), blob.getVariants()) == 0) {
+            // image deleted while queued, give the reference back
+            status.setRollbackOnly();
+            return true;
+        }
+        publishStatus(notificationId, image, ImageStatus.READY, blob.getPath(), blob.getSize(), blob.getVariants());
+        return true;
+    }
+
+    /**
+     * Deletes an image. The stored files are only removed once no other image references
+     * the same content.
+     * 
+     * @param uuid The UUID of the image
+     * @return true if the image existed
+     */
+    public boolean deleteImage(String uuid)
+    {
+        // Read and deleted under a row lock, so a transcode finishing at the same time has
+        // either taken its reference already or finds the row gone and removes its own files
+        AtomicBoolean unreferenced = new AtomicBoolean();
+        Image image = transaction.execute(status -> {
+            Image locked = imageRepository.findByUuidForUpdate(uuid).orElse(null);
+            if (locked == null) {
+                return null;
+            }
+            imageRepository.delete(locked);
+            if (locked.getStatus() != ImageStatus.READY) {
+                // pending and failed images never took a reference
+                return locked;
+            }
+            // Images stored before deduplication own their files
+            unreferenced.set(locked.getSha256() == null
+                || imageBlobRepository.decrementReferenceCount(locked.getSha256()) > 0
+                    && imageBlobRepository.deleteUnreferenced(locked.getSha256()) > 0);
+            // Lets the resize cache drop its copies of the stored file once it is gone
+            eventPublisher.publishEvent(new ImageDeletedEvent(uuid, locked.getPath(), unreferenced.get()));
+            return locked;
+        });
+        if (image == null) {
+            return false;
+        }
+        imageMetadataCache.invalidate(uuid);
+
+        if (unreferenced.get()) {
+            deleteStoredFiles(image.getPath(), ImageDto.parseVariants(image.getVariants()));
+        }
+        return true;
+    }
+
+    private void deleteStoredFiles(String filename, List<Integer> variants)
+    {
+        List<String> filenames = new ArrayList<>();
+        filenames.add(filename);
+        variants.forEach(x -> filenames.add(getVariantFilename(filename, x)));
+        for (String name : filenames) {
+            try {
+                imageStore.delete(name);
+            } catch (IOException e) {
+                logger.warn("Failed to delete stored image: {}", name, e);
+            }
+        }
+    }
+
+    private ReentrantLock getBlobLock(String sha256)
+    {
+        return blobLocks[Math.floorMod(sha256.hashCode(), BLOB_LOCK_STRIPES)];
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Scales an image down to the given width, keeping its aspect ratio.
+     * Halves the image repeatedly before the final step, a single bilinear
+     * step from a large original would skip most of the source pixels.
+     */
+    BufferedImage resize(BufferedImage source, int width)
+    {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+
+            BufferedImage scaled = new BufferedImage(currentWidth, currentHeight,
+                source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = scaled;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    /**
+     * Gets the filename of a resized variant, stored next to the original.
+     * 
+     * @param filename The filename of the original image
+     * @param width The width of the variant
+     * @return e.g. {@code <uuid>_w512.webp} for {@code <uuid>.webp}
+     */
+    public String getVariantFilename(String filename, int width)
+    {
+        int lastDotIndex = filename.lastIndexOf('.');
+        if (lastDotIndex == -1) {
+            return filename + "_w" + width;
+        }
+        return filename.substring(0, lastDotIndex) + "_w" + width + filename.substring(lastDotIndex);
+    }
+
+    /**
+     * Picks the file to serve for a requested width: the smallest stored variant at least
+     * as wide as requested, or the original if there is none.
+     * 
+     * @param image The image
+     * @param width The requested width, or null for the original
+     * @return The variant width to serve, or null for the original
+     */
+    public Integer selectVariant(ImageDto image, Integer width)
+    {
+        if (width == null || image.getVariants() == null) {
             return null;
         }
-        
-        Path imagePath = Paths.get(imageStoragePath, filename);
-        return imagePath.toString();
+        return image.getVariants().stream()
+            .filter(x -> x >= width)
+            .min(Integer::compare)
+            .orElse(null);
+    }
+
+    /**
+     * Encodes an image as WebP and hands it to the image store.
+     * 
+     * @return Size of the stored file in bytes
+     */
+    private long storeWebp(BufferedImage bufferedImage, String uuid, String filename) throws IOException
+    {
+        Path tempPath = encodeWebp(bufferedImage, uuid, null);
+        try
+        {
+            long size = Files.size(tempPath);
+            imageStore.put(filename, tempPath);
+            return size;
+        }
+        finally
+        {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Encodes an image as WebP into a temporary file next to the storage directory and
+     * atomically renames it to a local target, so readers never see a partially written file.
+     * 
+     * @param quality Quality between 0 and 1, or null for the encoder default
+     */
+    void writeWebp(BufferedImage bufferedImage, String uuid, Path targetPath, Float quality) throws IOException
+    {
+        Path tempPath = encodeWebp(bufferedImage, uuid, quality);
+        try
+        {
+            Files.move(tempPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Encodes an image as WebP into a temporary file in the staging directory.
+     * 
+     * @param quality Quality between 0 and 1, or null for the encoder default
+     * @return The temporary file, to be moved or deleted by the caller
+     */
+    private Path encodeWebp(BufferedImage bufferedImage, String uuid, Float quality) throws IOException
+    {
+        Path tempPath = Files.createTempFile(Paths.get(imageStoragePath, STAGING_DIRECTORY), uuid, ".webp.tmp");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("webp").next();
+        try
+        {
+            ImageWriteParam writeParam = null;
+            if (quality != null) {
+                writeParam = writer.getDefaultWriteParam();
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeParam.setCompressionType(writeParam.getCompressionTypes()[WebPWriteParam.LOSSY_COMPRESSION]);
+                writeParam.setCompressionQuality(quality);
+            }
+
+            try(ImageOutputStream ios = new FileImageOutputStream(tempPath.toFile()))
+            {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(bufferedImage, null, null), writeParam);
+            }
+            return tempPath;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        finally
+        {
+            writer.dispose();
+        }
+    }
+
+    private Path getStagingPath(String uuid)
+    {
+        return Paths.get(imageStoragePath, STAGING_DIRECTORY, uuid);
+    }
+
+    private void deleteStagedUpload(String uuid)
+    {
+        try {
+            Files.deleteIfExists(getStagingPath(uuid));
+        } catch (IOException e) {
+            logger.warn("Failed to delete staged upload: {}", uuid, e);
+        }
+    }
+
+    /**
+     * Estimates the heap needed to decode a validated image, without decoding any pixels.
+     * 
+     * @param image The validated upload
+     * @return Estimated size of the decoded raster in bytes
+     */
+    public long estimateDecodedSize(ValidatedImage image)
+    {
+        return (long) image.width() * image.height() * DECODED_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Reads the dimensions of an image from its header without decoding any pixels.
+     * The file must start with the signature of one of the supported formats.
+     * 
+     * @param file The uploaded image
+     * @return The width and height, or null if the format is not recognised
+     * @throws IOException if the upload cannot be read or the header is malformed
+     */
+    private Dimension readImageHeader(MultipartFile file) throws IOException
+    {
+        try(InputStream is = file.getInputStream(); ImageInputStream iis = ImageIO.createImageInputStream(is))
+        {
+            if (iis == null) {
+                return null;
+            }
+
+            byte[] signature = new byte[12];
+            int length = iis.read(signature);
+            if (!hasSupportedSignature(signature, length)) {
+                return null;
+            }
+            iis.seek(0);
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(iis, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Checks the leading bytes of a file against the signatures of the supported formats.
+     */
+    private static boolean hasSupportedSignature(byte[] header, int length)
+    {
+        // JPEG
+        if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return true;
+        }
+        // PNG
+        if (length >= 8 && startsWith(header, new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' })) {
+            return true;
+        }
+        // GIF87a / GIF89a
+        if (length >= 6 && startsWith(header, "GIF8".getBytes()) && (header[4] == '7' || header[4] == '9') && header[5] == 'a') {
+            return true;
+        }
+        // BMP
+        if (length >= 2 && header[0] == 'B' && header[1] == 'M') {
+            return true;
+        }
+        // WebP: RIFF....WEBP
+        return length >= 12 && startsWith(header, "RIFF".getBytes())
+            && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P';
+    }
+
+    private static boolean startsWith(byte[] header, byte[] prefix)
+    {
+        for (int i = 0; i < prefix.length; i++) {
+            if (header[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -140,54 +799,73 @@ public class ImageService implements InitializingBean {
      * - File size is within limits
      * - File extension is supported
      * - Content type is an image type
+     * - File starts with the signature of a supported format
+     * - Pixel count read from the header is within limits (decompression bombs)
      * 
      * @param file The MultipartFile to validate
-     * @return true if the file is valid, false otherwise
+     * @return The upload with its dimensions if the file is valid, null otherwise
      */
-    public boolean validateImageFile(MultipartFile file) {
+    public ValidatedImage validateImage(MultipartFile file) {
         if (file == null || file.isEmpty()) {
             logger.debug("File is null or empty");
-            return false;
+            return null;
         }
 
         // Check file size
         if (file.getSize() > maxFileSize) {
             logger.debug("File size {} exceeds maximum allowed size {}", file.getSize(), maxFileSize);
-            return false;
+            return null;
         }
 
         // Check file extension
         String originalFilename = file.getOriginalFilename();
         if (originalFilename == null || originalFilename.trim().isEmpty()) {
             logger.debug("Original filename is null or empty");
-            return false;
+            return null;
         }
 
         String extension = getFileExtension(originalFilename).toLowerCase();
         if (!SUPPORTED_IMAGE_EXTENSIONS.contains(extension)) {
             logger.debug("Unsupported file extension: {}", extension);
-            return false;
+            return null;
         }
 
         // Check content type
         String contentType = file.getContentType();
         if (contentType == null || !contentType.startsWith("image/")) {
             logger.debug("Invalid content type: {}", contentType);
-            return false;
+            return null;
         }
 
-        return true;
+        // Check the real format and dimensions from the header, before any pixels are decoded
+        Dimension dimension;
+        try {
+            dimension = readImageHeader(file);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Malformed image header: {}", originalFilename, e);
+            return null;
+        }
+        if (dimension == null) {
+            logger.debug("Unrecognised image format: {}", originalFilename);
+            return null;
+        }
+        if (dimension.width <= 0 || dimension.height <= 0 || (long) dimension.width * dimension.height > maxPixels) {
+            logger.debug("Image dimensions {}x{} exceed maximum of {} pixels", dimension.width, dimension.height, maxPixels);
+            return null;
+        }
+
+        return new ValidatedImage(file, dimension.width, dimension.height);
     }
 
     /**
-     * Generates a unique filename to prevent conflicts.
+     * Generates the filename of newly stored content. Named after the upload rather than
+     * the content hash, so nodes transcoding identical uploads at the same time never write
+     * or delete each other's files. The first one recorded in image_blob is kept.
      * 
-     * @param originalFilename The original filename from the uploaded file
-     * @return A unique filename with UUID prefix
+     * @param uuid The UUID of the upload
+     * @return A filename with the UUID as prefix
      */
-    private String generateUniqueFilename(String originalFilename, String extension) {
-        // String extension = getFileExtension(originalFilename);
-        String uuid = UUID.randomUUID().toString();
+    private String generateUniqueFilename(String uuid, String extension) {
         return uuid + "." + extension;
     }
 
@@ -210,19 +888,29 @@ public class ImageService implements InitializingBean {
         return filename.substring(lastDotIndex + 1);
     }
 
-    public long getImageFileSize(String path)
-    {
-        return FileUtils.sizeOf(new File(path));
-    }
-
+    /**
+     * Looks up image metadata by UUID through the metadata cache.
+     * Unknown UUIDs are cached as well, so repeated lookups of missing images do not reach the database.
+     * Images that are still PENDING are not kept, their status is about to change.
+     * Entries expire after notification.image.metadata-cache-ttl-seconds, deletes on other nodes
+     * are only seen once they do.
+     * 
+     * @param uuid The UUID of the image
+     * @return The image, or null if there is no image with this UUID
+     */
     public ImageDto getImageByUuid(String uuid)
     {
-        var image = imageRepository.findByUuid(uuid);
-        if(image.isEmpty())
+        Optional<ImageDto> image = imageMetadataCache.get(uuid, this::loadImageByUuid);
+        if(image.isPresent() && image.get().getStatus() == ImageStatus.PENDING)
         {
-            return null;
+            imageMetadataCache.invalidate(uuid);
         }
-        return ImageDto.fromImage(image.get());
+        return image.orElse(null);
+    }
+
+    private Optional<ImageDto> loadImageByUuid(String uuid)
+    {
+        return imageRepository.findByUuid(uuid).map(ImageDto::fromImage);
     }
 
     @Override
@@ -232,5 +920,27 @@ public class ImageService implements InitializingBean {
         {
             throw new IllegalArgumentException("image storage path problem " + imageStoragePath);
         }
+        Files.createDirectories(Paths.get(imageStoragePath, STAGING_DIRECTORY));
+
+        // header reads buffer in memory instead of spilling to temp files
+        ImageIO.setUseCache(false);
+
+        // deletes only invalidate the local cache, entries expire so other nodes stop serving
+        // a deleted image after at most the TTL
+        imageMetadataCache = Caffeine.newBuilder()
+            .maximumSize(metadataCacheSize)
+            .expireAfterWrite(Duration.ofSeconds(metadataCacheTtlSeconds))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, imageMetadataCache, "image.metadata");
+
+        transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < BLOB_LOCK_STRIPES; i++) {
+            blobLocks[i] = new ReentrantLock();
+        }
+        deduplicatedCounter = Counter.builder("notification.image.deduplicated")
+            .description("Uploads served from already stored content instead of being transcoded")
+            .register(meterRegistry);
     }
 }
\ No newline at end of file
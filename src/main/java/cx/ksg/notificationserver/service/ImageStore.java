@@ -0,0 +1,102 @@
+package cx.ksg.notificationserver.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Storage backend for transcoded image files.
+ * 
+ * Files are addressed by the filename stored in the image table (including the names of
+ * the resized variants). The backend is selected with notification.image.store.type:
+ * - filesystem: the storage directory, see {@link FileSystemImageStore}
+ * - s3: an S3 compatible object store, see {@link S3ImageStore}
+ * 
+ * Missing files are reported with {@link java.nio.file.NoSuchFileException}.
+ */
+public interface ImageStore {
+
+    /**
+     * Stores a finished file. The source is a temporary file that may be moved or
+     * deleted by the caller afterwards.
+     * 
+     * @param filename The filename to store the file under
+     * @param source The local file to store
+     * @throws IOException if the file cannot be stored
+     */
+    void put(String filename, Path source) throws IOException;
+
+    /**
+     * Opens a stored file for reading.
+     * 
+     * @param filename The filename of the stored file
+     * @return Stream over the whole file, to be closed by the caller
+     * @throws IOException if the file cannot be read
+     */
+    InputStream get(String filename) throws IOException;
+
+    /**
+     * Opens part of a stored file for reading, used for HTTP range requests.
+     * 
+     * @param filename The filename of the stored file
+     * @param start Offset of the first byte
+     * @param count Number of bytes
+     * @return Stream over the requested bytes, to be closed by the caller
+     * @throws IOException if the file cannot be read
+     */
+    InputStream stream(String filename, long start, long count) throws IOException;
+
+    /**
+     * @param filename The filename of the stored file
+     * @return true if the file is stored
+     * @throws IOException if the backend cannot be reached
+     */
+    boolean exists(String filename) throws IOException;
+
+    /**
+     * @param filename The filename of the stored file
+     * @return Size of the file in bytes
+     * @throws IOException if the file is missing or the backend cannot be reached
+     */
+    long size(String filename) throws IOException;
+
+    /**
+     * Deletes a stored file, missing files are ignored.
+     * 
+     * @param filename The filename of the stored file
+     * @throws IOException if the file cannot be deleted
+     */
+    void delete(String filename) throws IOException;
+
+    /**
+     * Gets the location of a stored file relative to the root of the store (the path below
+     * the storage directory, or the object key), e.g. for an nginx internal location.
+     * 
+     * @param filename The filename of the stored file
+     * @return The location, with '/' as separator
+     */
+    String getLocation(String filename);
+
+    /**
+     * Creates a short-lived URL clients can download a stored file from directly.
+     * 
+     * @param filename The filename of the stored file
+     * @param expiry How long the URL stays valid
+     * @return The URL, or null if the backend cannot serve files itself
+     */
+    default String getSignedUrl(String filename, Duration expiry) {
+        return null;
+    }
+
+    /**
+     * Gets the local path of a stored file, so it can be handed to the connector for
+     * zero-copy sends.
+     * 
+     * @param filename The filename of the stored file
+     * @return The local path, or null if the backend is not on the local file system
+     */
+    default Path getLocalPath(String filename) {
+        return null;
+    }
+}
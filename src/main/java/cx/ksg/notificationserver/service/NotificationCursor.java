@@ -0,0 +1,206 @@
+package cx.ksg.notificationserver.service;
+
+import cx.ksg.notificationserver.dto.NotificationPageDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto;
+import cx.ksg.notificationserver.dto.NotificationRetrieveDto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position of a keyset page: an exclusive bound on the sort key and the direction to read from it.
+ * 
+ * Pages are sorted by ID, or by (sendOn, ID) when the request filters on a sendOn range so
+ * the page can be read from the (send_on, id) index. In the latter case the cursor carries
+ * the sendOn of the bound as well.
+ * 
+ * Encoded for clients as an opaque URL-safe token, so the format can change without
+ * breaking them as long as old tokens still decode.
+ */
+public final class NotificationCursor {
+
+    private static final char FORWARD = 'a';
+
+    private static final char BACKWARD = 'b';
+
+    private static final char FORWARD_BY_SEND_ON = 'A';
+
+    private static final char BACKWARD_BY_SEND_ON = 'B';
+
+    private final boolean forward;
+
+    // null when sorted by ID only
+    private final Long sendOn;
+
+    private final long id;
+
+    private NotificationCursor(boolean forward, Long sendOn, long id) {
+        this.forward = forward;
+        this.sendOn = sendOn;
+        this.id = id;
+    }
+
+    /**
+     * @param id The exclusive lower bound of the ID
+     * @return a cursor reading IDs greater than id, oldest first
+     */
+    public static NotificationCursor after(long id) {
+        return new NotificationCursor(true, null, id);
+    }
+
+    /**
+     * @param id The exclusive upper bound of the ID
+     * @return a cursor reading IDs less than id, newest first
+     */
+    public static NotificationCursor before(long id) {
+        return new NotificationCursor(false, null, id);
+    }
+
+    /**
+     * Resolves the cursor of a paged retrieve request.
+     * 
+     * At most one of afterId, beforeId and cursor may be set. Without any of them a filtered
+     * request starts at the newest matching notification. With a sendOn range, afterId may
+     * only be 0 to start at the beginning of the range, later pages continue with cursor.
+     * 
+     * @throws IllegalArgumentException if the request does not name a valid position
+     *         or the cursor token is malformed or was issued for another kind of filter
+     */
+    public static NotificationCursor of(NotificationRetrieveDto request) {
+        int positions = (request.getAfterId() != null ? 1 : 0)
+            + (request.getBeforeId() != null ? 1 : 0)
+            + (request.getCursor() != null ? 1 : 0);
+        if (positions > 1) {
+            throw new IllegalArgumentException("at most one of afterId, beforeId and cursor can be set");
+        }
+
+        boolean bySendOn = request.getSendOnFrom() != null || request.getSendOnTo() != null;
+        if (request.getSendOnFrom() != null && request.getSendOnTo() != null && request.getSendOnFrom() > request.getSendOnTo()) {
+            throw new IllegalArgumentException("sendOnFrom cannot be after sendOnTo");
+        }
+        if (request.getCursor() != null) {
+            NotificationCursor cursor = decode(request.getCursor());
+            if ((cursor.sendOn != null) != bySendOn) {
+                throw new IllegalArgumentException("cursor does not match the sendOn filter");
+            }
+            return cursor;
+        }
+
+        if (bySendOn) {
+            if (request.getBeforeId() != null || (request.getAfterId() != null && request.getAfterId() != 0)) {
+                throw new IllegalArgumentException("a sendOn range is paged with cursor, afterId can only be 0");
+            }
+            if (request.getAfterId() != null) {
+                long sendOnFrom = request.getSendOnFrom() == null ? Long.MIN_VALUE : request.getSendOnFrom();
+                return new NotificationCursor(true, sendOnFrom, 0);
+            }
+            long sendOnTo = request.getSendOnTo() == null ? Long.MAX_VALUE : request.getSendOnTo();
+            return new NotificationCursor(false, sendOnTo, Long.MAX_VALUE);
+        }
+
+        if (request.getAfterId() != null) {
+            return after(request.getAfterId());
+        }
+        if (request.getBeforeId() != null) {
+            return before(request.getBeforeId());
+        }
+        if (request.getFrom() != null) {
+            return before(Long.MAX_VALUE);
+        }
+        throw new IllegalArgumentException("one of afterId, beforeId and cursor must be set");
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static NotificationCursor decode(String token) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            if (value.length() > 1) {
+                char kind = value.charAt(0);
+                if (kind == FORWARD || kind == BACKWARD) {
+                    long id = Long.parseLong(value, 1, value.length(), 10);
+                    if (kind == FORWARD && id >= 0) {
+                        return after(id);
+                    }
+                    if (kind == BACKWARD && id > 0) {
+                        return before(id);
+                    }
+                }
+                int separator = value.indexOf(':');
+                if ((kind == FORWARD_BY_SEND_ON || kind == BACKWARD_BY_SEND_ON) && separator > 1) {
+                    long sendOn = Long.parseLong(value, 1, separator, 10);
+                    long id = Long.parseLong(value, separator + 1, value.length(), 10);
+                    if (id >= 0) {
+                        return new NotificationCursor(kind == FORWARD_BY_SEND_ON, sendOn, id);
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException and bad Base64 are reported the same way
+        }
+        throw new IllegalArgumentException("malformed cursor");
+    }
+
+    /**
+     * Builds the page read from this cursor, with the cursor of the page that follows it.
+     * 
+     * @param notifications The notifications read from this cursor, in its direction
+     * @param hasMore Whether more notifications were available past the page
+     */
+    public NotificationPageDto<NotificationResponseDto> page(List<NotificationResponseDto> notifications, boolean hasMore) {
+        NotificationCursor next = this;
+        if (!notifications.isEmpty()) {
+            NotificationResponseDto last = notifications.get(notifications.size() - 1);
+            next = new NotificationCursor(forward, sendOn == null ? null : last.getSendOn(), last.getId());
+        }
+        // Nothing is older than the end of the history, while new notifications can always follow
+        if (!forward && !hasMore) {
+            next = null;
+        }
+        return new NotificationPageDto<>(notifications, next == null ? null : next.encode(), hasMore);
+    }
+
+    /**
+     * @return true if the notification sorts past this cursor in its direction
+     */
+    public boolean precedes(NotificationResponseDto notification) {
+        int order = sendOn == null ? 0 : Long.compare(notification.getSendOn(), sendOn);
+        if (order == 0) {
+            order = Long.compare(notification.getId(), id);
+        }
+        return forward ? order > 0 : order < 0;
+    }
+
+    public String encode() {
+        String value = sendOn == null
+            ? (forward ? FORWARD : BACKWARD) + Long.toString(id)
+            : (forward ? FORWARD_BY_SEND_ON : BACKWARD_BY_SEND_ON) + Long.toString(sendOn) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public boolean isForward() {
+        return forward;
+    }
+
+    /**
+     * @return true if pages are sorted by (sendOn, ID) rather than by ID
+     */
+    public boolean isBySendOn() {
+        return sendOn != null;
+    }
+
+    public Long getSendOn() {
+        return sendOn;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return (forward ? "after " : "before ") + (sendOn == null ? "" : "sendOn " + sendOn + ", ") + "id " + id;
+    }
+}
@@ -0,0 +1,208 @@
+package cx.ksg.notificationserver.service;
+
+import cx.ksg.notificationserver.dto.NotificationPageDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto;
+import cx.ksg.notificationserver.dto.NotificationRetrieveDto;
+import cx.ksg.notificationserver.event.NotificationBatchCreatedEvent;
+import cx.ksg.notificationserver.event.NotificationCreatedEvent;
+import cx.ksg.notificationserver.repository.NotificationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Service for long-polling retrieve requests.
+ * 
+ * Tracks the newest committed notification ID in memory. A retrieve request with
+ * a waitMillis whose lastId is already up to date is parked without touching the
+ * database, and completed directly from the NotificationCreatedEvent of the next
+ * notification, or with an empty list when the wait times out.
+ * 
+ * Signalling is in-process only, a notification created on another node will be
+ * picked up on the client's next poll.
+ */
+@Service
+public class NotificationLongPollService implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationLongPollService.class);
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Value("${notification.retrieve.max-wait-millis:30000}")
+    private long maxWaitMillis;
+
+    private final AtomicLong latestId = new AtomicLong();
+
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Retrieves notifications newer than the request's lastId, waiting up to waitMillis
+     * for one to be created if there are none yet.
+     * 
+     * @param request The retrieve request
+     * @param mapper Converts the notifications to the value the DeferredResult is completed with
+     * @return DeferredResult completed with the mapped notifications
+     */
+    public <T> DeferredResult<T> retrieve(NotificationRetrieveDto request, Function<List<NotificationResponseDto>, T> mapper) {
+        return await(request.getLastId(), clampWait(request.getWaitMillis()),
+            () -> mapper.apply(notificationService.retrieveNotifications(request)),
+            mapper,
+            () -> mapper.apply(List.of()));
+    }
+
+    /**
+     * Retrieves the keyset page of a paged request. A forward page that would be empty
+     * waits up to waitMillis for a matching notification to be created, backward pages
+     * never wait. Filtered requests cannot be answered from the latest ID alone, so they
+     * query the database before parking, and once more after registering.
+     * 
+     * @param request The paged retrieve request
+     * @param mapper Converts the page to the value the DeferredResult is completed with
+     * @return DeferredResult completed with the mapped page
+     * @throws IllegalArgumentException if the request does not name a valid cursor
+     */
+    public <T> DeferredResult<T> retrievePage(NotificationRetrieveDto request, Function<NotificationPageDto<NotificationResponseDto>, T> mapper) {
+        NotificationCursor cursor = NotificationCursor.of(request);
+        Function<List<NotificationResponseDto>, T> created = x -> mapper.apply(cursor.page(x, false));
+        Supplier<T> timedOut = () -> mapper.apply(cursor.page(List.of(), false));
+        long waitMillis = cursor.isForward() ? clampWait(request.getWaitMillis()) : 0;
+
+        if (!request.isFiltered()) {
+            return await(cursor.getId(), waitMillis,
+                () -> mapper.apply(notificationService.retrieveNotificationPage(cursor, request)), created, timedOut);
+        }
+
+        DeferredResult<T> result = newResult(waitMillis, timedOut);
+        NotificationPageDto<NotificationResponseDto> page = notificationService.retrieveNotificationPage(cursor, request);
+        if (waitMillis == 0 || !page.getNotifications().isEmpty()) {
+            result.setResult(mapper.apply(page));
+            return result;
+        }
+
+        // Registered after an empty page and checked with a second query, as something may
+        // have committed in between. Until that query is back a wakeup only unparks the
+        // waiter: completing with the one notification could skip older rows the query returns
+        AtomicBoolean armed = new AtomicBoolean();
+        Waiter waiter = new Waiter(x -> cursor.precedes(x) && NotificationService.matches(request, x), x -> {
+            if (armed.get()) {
+                result.setResult(created.apply(x));
+            }
+        });
+        park(waiter, result);
+
+        page = notificationService.retrieveNotificationPage(cursor, request);
+        if (!page.getNotifications().isEmpty()) {
+            waiters.remove(waiter);
+            result.setResult(mapper.apply(page));
+            return result;
+        }
+
+        armed.set(true);
+        if (!waiters.contains(waiter)) {
+            // Woken before it was armed, by a notification committed after the second query
+            result.setResult(mapper.apply(notificationService.retrieveNotificationPage(cursor, request)));
+            return result;
+        }
+        logger.debug("Parking filtered retrieve request {} for up to {} ms", cursor, waitMillis);
+        return result;
+    }
+
+    private <T> DeferredResult<T> await(long lastId, long waitMillis, Supplier<T> query,
+                                        Function<List<NotificationResponseDto>, T> created, Supplier<T> timedOut) {
+        DeferredResult<T> result = newResult(waitMillis, timedOut);
+        if (waitMillis > 0 && !hasNewerThan(lastId)) {
+            Waiter waiter = new Waiter(x -> x.getId() > lastId, x -> result.setResult(created.apply(x)));
+            park(waiter, result);
+
+            // A notification may have been committed between the check and the registration
+            if (!hasNewerThan(lastId)) {
+                logger.debug("Parking retrieve request after ID {} for up to {} ms", lastId, waitMillis);
+                return result;
+            }
+            waiters.remove(waiter);
+        }
+
+        result.setResult(query.get());
+        return result;
+    }
+
+    private long clampWait(Long requestedWaitMillis) {
+        return requestedWaitMillis == null ? 0 : Math.min(requestedWaitMillis, maxWaitMillis);
+    }
+
+    private <T> DeferredResult<T> newResult(long waitMillis, Supplier<T> timedOut) {
+        return new DeferredResult<>(waitMillis > 0 ? waitMillis : null, timedOut);
+    }
+
+    private void park(Waiter waiter, DeferredResult<?> result) {
+        waiters.add(waiter);
+        result.onCompletion(() -> waiters.remove(waiter));
+    }
+
+    private boolean hasNewerThan(long lastId) {
+        return latestId.get() > lastId;
+    }
+
+    @TransactionalEventListener
+    public void onNotificationCreated(NotificationCreatedEvent event) {
+        NotificationResponseDto notification = event.getNotification();
+        latestId.accumulateAndGet(notification.getId(), Math::max);
+
+        List<NotificationResponseDto> notifications = List.of(notification);
+        for (Waiter waiter : waiters) {
+            if (waiter.accepts.test(notification) && waiters.remove(waiter)) {
+                waiter.listener.accept(notifications);
+            }
+        }
+    }
+
+    /**
+     * Wakes every parked request with an empty result, the batch is not carried in the
+     * event, so the clients poll again and read it from the database.
+     */
+    @TransactionalEventListener
+    public void onNotificationBatchCreated(NotificationBatchCreatedEvent event) {
+        latestId.accumulateAndGet(event.getMaxId(), Math::max);
+
+        for (Waiter waiter : waiters) {
+            if (waiters.remove(waiter)) {
+                waiter.listener.accept(List.of());
+            }
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Long maxId = notificationRepository.findMaxId();
+        latestId.set(maxId == null ? 0 : maxId);
+    }
+
+    private static final class Waiter {
+        private final Predicate<NotificationResponseDto> accepts;
+        private final Consumer<List<NotificationResponseDto>> listener;
+
+        private Waiter(Predicate<NotificationResponseDto> accepts, Consumer<List<NotificationResponseDto>> listener) {
+            this.accepts = accepts;
+            this.listener = listener;
+        }
+    }
+}
@@ -1,21 +1,40 @@
 package cx.ksg.notificationserver.service;
 
 import cx.ksg.notificationserver.dto.ImageDto;
+import cx.ksg.notificationserver.dto.NotificationBatchResultDto;
+import cx.ksg.notificationserver.dto.NotificationCreateDto;
+import cx.ksg.notificationserver.dto.NotificationPageDto;
 import cx.ksg.notificationserver.dto.NotificationResponseDto;
 import cx.ksg.notificationserver.dto.NotificationRetrieveDto;
 import cx.ksg.notificationserver.entity.Image;
 import cx.ksg.notificationserver.entity.Notification;
+import cx.ksg.notificationserver.event.NotificationBatchCreatedEvent;
+import cx.ksg.notificationserver.event.NotificationCreatedEvent;
+import cx.ksg.notificationserver.repository.ImageRepository;
 import cx.ksg.notificationserver.repository.NotificationRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -33,18 +52,88 @@ import java.util.stream.Collectors;
  * Requirements: 2.1, 2.4, 3.1, 3.2, 5.1
  */
 @Service
-public class NotificationService {
+public class NotificationService implements InitializingBean {
 
     private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
 
+    // Maximum number of notifications returned by a retrieve request
+    private static final int RETRIEVE_LIMIT = 50;
+
+    // Notifications inserted per JDBC batch, matches hibernate.jdbc.batch_size
+    private static final int FLUSH_INTERVAL = 50;
+
+    @Value("${notification.batch.max-items:10000}")
+    private int batchMaxItems;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private Validator validator;
+
     @Autowired
     private NotificationRepository notificationRepository;
 
+    @Autowired
+    private ImageRepository imageRepository;
+
     @Autowired
     private ImageService imageService;
 
-    @Transactional
-    public NotificationResponseDto createNotification(String content, String from, List<MultipartFile> images) {
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private RecentNotificationCache recentNotificationCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private GroupCommitExecutor groupCommitExecutor;
+
+    private TransactionTemplate transaction;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    /**
+     * Creates a notification and schedules its images for transcoding.
+     * With group commit enabled the insert shares its transaction with concurrent creates,
+     * the call returns once that transaction has committed.
+     * 
+     * @param onImagesProcessed Run exactly once, when all images have been transcoded or when the
+     *        creation has failed, so callers do not clean up on an exception themselves
+     */
+    public NotificationResponseDto createNotification(String content, String from, List<ImageService.ValidatedImage> images, Runnable onImagesProcessed) {
+        // Uploads are hashed and copied before the transaction, so upload I/O neither holds
+        // a connection nor runs on the group commit writer
+        List<ImageService.StagedUpload> uploads = new ArrayList<>();
+        try {
+            for (ImageService.ValidatedImage image : images) {
+                uploads.add(imageService.prepare(image));
+            }
+
+            if (groupCommitExecutor.isEnabled()) {
+                return groupCommitExecutor.execute(() -> insertNotification(content, from, uploads, onImagesProcessed));
+            }
+            return transaction.execute(status -> insertNotification(content, from, uploads, onImagesProcessed));
+        } catch (Exception e) {
+            // Only once every attempt has failed, a group commit retries after a rollback
+            imageService.discard(uploads);
+            onImagesProcessed.run();
+            if (e instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            logger.error("Failed to create notification", e);
+            throw new RuntimeException("Failed to create notification: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Inserts a notification and the image rows of its staged uploads, in the caller's transaction.
+     * The staged files are left untouched, so this can be run again after a rollback.
+     */
+    private NotificationResponseDto insertNotification(String content, String from, List<ImageService.StagedUpload> uploads, Runnable onImagesProcessed) {
         logger.info("Creating notification from sender: {}", from);
 
         try {
@@ -58,10 +147,12 @@ public class NotificationService {
             Notification savedNotification = notificationRepository.save(notification);
             logger.debug("Saved notification with ID: {}", savedNotification.getId());
 
+            // Only the image rows are created here, decoding and WebP encoding run
+            // on the transcode pool after this transaction commits
             ArrayList<Image> images2 = new ArrayList<>();
-            for(var image : images)
+            for(var upload : uploads)
             {
-                Image image2 = imageService.save(savedNotification, image);
+                Image image2 = imageService.stage(savedNotification, upload);
                 images2.add(image2);
             }
 
@@ -74,6 +165,12 @@ public class NotificationService {
                 savedNotification.getFrom()
             );
             
+            // Delivered to listeners after commit. Published before the transcodes are
+            // scheduled, so the recent notification cache holds the notification before
+            // any of its images can change status
+            eventPublisher.publishEvent(new NotificationCreatedEvent(response));
+            imageService.scheduleTranscode(images2, onImagesProcessed);
+
             logger.info("Successfully created notification with ID: {}", savedNotification.getId());
             return response;
             
@@ -83,12 +180,206 @@ public class NotificationService {
         }
     }
 
-    @Transactional(readOnly = true)
+    /**
+     * Creates notifications from a stream of items in a single transaction.
+     * Items are read one at a time, and the inserts are flushed as one JDBC batch every
+     * FLUSH_INTERVAL notifications, after which the entities are detached, so memory does
+     * not grow with the persistence context. Invalid items are reported and skipped.
+     * 
+     * A single NotificationBatchCreatedEvent is published for the whole batch rather than
+     * one NotificationCreatedEvent per item, stream and long-poll clients are told to
+     * catch up by paging instead of being pushed every notification.
+     * 
+     * @param items The items, in request order
+     * @return One result per item, in request order
+     * @throws IllegalArgumentException if there are more than batchMaxItems items
+     */
+    @Transactional
+    public List<NotificationBatchResultDto> createNotifications(Iterator<NotificationCreateDto> items) {
+        List<NotificationBatchResultDto> results = new ArrayList<>();
+        int pending = 0;
+        int created = 0;
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (int index = 0; items.hasNext(); index++) {
+            if (index >= batchMaxItems) {
+                throw new IllegalArgumentException("batch cannot exceed " + batchMaxItems + " notifications");
+            }
+
+            NotificationCreateDto item = items.next();
+            String error = validate(item);
+            if (error != null) {
+                results.add(NotificationBatchResultDto.rejected(index, error));
+                continue;
+            }
+
+            Notification notification = notificationRepository.save(new Notification(item.getContent(), item.getSendOn(), item.getFrom()));
+            results.add(NotificationBatchResultDto.created(index, notification.getId()));
+            created++;
+            minId = Math.min(minId, notification.getId());
+            maxId = Math.max(maxId, notification.getId());
+
+            if (++pending == FLUSH_INTERVAL) {
+                entityManager.flush();
+                entityManager.clear();
+                pending = 0;
+            }
+        }
+
+        // Delivered to listeners after commit
+        if (created > 0) {
+            eventPublisher.publishEvent(new NotificationBatchCreatedEvent(created, minId, maxId));
+        }
+
+        logger.info("Created {} notifications from a batch of {}", created, results.size());
+        return results;
+    }
+
+    private String validate(NotificationCreateDto item) {
+        if (item == null) {
+            return "notification cannot be null";
+        }
+        Set<ConstraintViolation<NotificationCreateDto>> violations = validator.validate(item);
+        if (!violations.isEmpty()) {
+            return violations.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining(", "));
+        }
+        // image uploads need the multipart create endpoint
+        if (item.getImageUuids() != null && !item.getImageUuids().isEmpty()) {
+            return "images are not supported in a batch";
+        }
+        return null;
+    }
+
     public List<NotificationResponseDto> retrieveNotifications(NotificationRetrieveDto request) {
         logger.info("Retrieving notifications with parameters: {}", request);
-        
-        List<Notification> notifications = notificationRepository.findByIdGreaterThenIdOrderByIdDesc(request.getLastId(), Limit.of(50));
-        logger.info("Retrieved {} notifications", notifications.size());
-        return notifications.stream().map(NotificationResponseDto::fromNotification).toList();
+
+        // Served without a database connection when lastId is recent enough
+        List<NotificationResponseDto> cached = recentNotificationCache.findAfter(request.getLastId(), RETRIEVE_LIMIT);
+        if (cached != null) {
+            logger.info("Retrieved {} notifications from cache", cached.size());
+            return cached;
+        }
+
+        return readOnlyTransaction.execute(status -> {
+            List<Notification> notifications = notificationRepository.findByIdGreaterThanOrderByIdDesc(request.getLastId(), Limit.of(RETRIEVE_LIMIT));
+            logger.info("Retrieved {} notifications", notifications.size());
+            return toResponseDtos(notifications);
+        });
+    }
+
+    /**
+     * Retrieves one keyset page. Every page is a single index range scan, on the primary key,
+     * (from_sender, id) or (send_on, id) depending on the filters, however far the client
+     * has paged. Unfiltered forward pages at the head of the ID space are served from the
+     * recent notification cache.
+     * 
+     * @param cursor Where the page starts and in which direction it reads
+     * @param request The paged request with the limit and filters
+     * @return the page with the cursor of the next one
+     */
+    public NotificationPageDto<NotificationResponseDto> retrieveNotificationPage(NotificationCursor cursor, NotificationRetrieveDto request) {
+        int pageSize = request.getLimit() == null ? RETRIEVE_LIMIT : request.getLimit();
+        logger.info("Retrieving notification page {}, limit {}", cursor, pageSize);
+
+        // One extra row tells whether another page follows without a count query
+        Limit limit = Limit.of(pageSize + 1);
+        List<NotificationResponseDto> notifications = cursor.isForward() && !request.isFiltered()
+            ? recentNotificationCache.findAfterAscending(cursor.getId(), limit.max())
+            : null;
+        if (notifications == null) {
+            notifications = readOnlyTransaction.execute(status -> toResponseDtos(findPage(cursor, request, limit)));
+        }
+
+        boolean hasMore = notifications.size() > pageSize;
+        return cursor.page(hasMore ? notifications.subList(0, pageSize) : notifications, hasMore);
+    }
+
+    /**
+     * Retrieves the notifications a reconnecting stream client missed, oldest first,
+     * with one range scan on the primary key.
+     * 
+     * @param afterId The last notification the client received
+     * @param max Maximum number of notifications to return
+     * @return the notifications, hasMore is set if more than max were missed
+     */
+    public NotificationPageDto<NotificationResponseDto> retrieveMissed(long afterId, int max) {
+        NotificationRetrieveDto request = new NotificationRetrieveDto();
+        request.setLimit(max);
+        return retrieveNotificationPage(NotificationCursor.after(afterId), request);
+    }
+
+    private List<Notification> findPage(NotificationCursor cursor, NotificationRetrieveDto request, Limit limit) {
+        if (cursor.isBySendOn()) {
+            return cursor.isForward()
+                ? notificationRepository.findBySendOnAfter(cursor.getSendOn(), cursor.getId(),
+                    request.getSendOnTo() == null ? Long.MAX_VALUE : request.getSendOnTo(), request.getFrom(), limit)
+                : notificationRepository.findBySendOnBefore(cursor.getSendOn(), cursor.getId(),
+                    request.getSendOnFrom() == null ? Long.MIN_VALUE : request.getSendOnFrom(), request.getFrom(), limit);
+        }
+        if (request.getFrom() != null) {
+            return cursor.isForward()
+                ? notificationRepository.findByFromAndIdGreaterThanOrderByIdAsc(request.getFrom(), cursor.getId(), limit)
+                : notificationRepository.findByFromAndIdLessThanOrderByIdDesc(request.getFrom(), cursor.getId(), limit);
+        }
+        return cursor.isForward()
+            ? notificationRepository.findByIdGreaterThanOrderByIdAsc(cursor.getId(), limit)
+            : notificationRepository.findByIdLessThanOrderByIdDesc(cursor.getId(), limit);
+    }
+
+    /**
+     * @return true if the notification passes the sender and sendOn filters of the request
+     */
+    public static boolean matches(NotificationRetrieveDto request, NotificationResponseDto notification) {
+        return (request.getFrom() == null || request.getFrom().equals(notification.getFrom()))
+            && (request.getSendOnFrom() == null || notification.getSendOn() >= request.getSendOnFrom())
+            && (request.getSendOnTo() == null || notification.getSendOn() <= request.getSendOnTo());
+    }
+
+    /**
+     * Seeds the recent notification cache once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpCache() {
+        if (!recentNotificationCache.isEnabled()) {
+            return;
+        }
+
+        readOnlyTransaction.executeWithoutResult(status -> {
+            Long maxId = notificationRepository.findMaxId();
+            if (maxId == null) {
+                recentNotificationCache.seed(List.of(), 0);
+                return;
+            }
+
+            int capacity = recentNotificationCache.getCapacity();
+            List<Notification> notifications = notificationRepository.findByIdGreaterThanOrderByIdDesc(Math.max(0, maxId - capacity), Limit.of(capacity));
+            recentNotificationCache.seed(toResponseDtos(notifications), maxId);
+            logger.info("Seeded recent notification cache with {} notifications", notifications.size());
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        transaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Converts a page of notifications to DTOs, loading the images of the whole page
+     * with a single query instead of one lazy load per notification.
+     */
+    private List<NotificationResponseDto> toResponseDtos(List<Notification> notifications) {
+        if (notifications.isEmpty()) {
+            return List.of();
+        }
+
+        List<Long> ids = notifications.stream().map(Notification::getId).toList();
+        Map<Long, List<Image>> imagesByNotificationId = imageRepository.findByNotificationIdInOrderByIdAsc(ids).stream()
+            .collect(Collectors.groupingBy(x -> x.getNotification().getId()));
+
+        return notifications.stream()
+            .map(x -> NotificationResponseDto.fromNotification(x, imagesByNotificationId.getOrDefault(x.getId(), List.of())))
+            .toList();
     }
 }
\ No newline at end of file
@@ -0,0 +1,261 @@
+package cx.ksg.notificationserver.service;
+
+import cx.ksg.notificationserver.config.NotificationStreamConfig;
+import cx.ksg.notificationserver.dto.NotificationPageDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto2;
+import cx.ksg.notificationserver.event.NotificationBatchCreatedEvent;
+import cx.ksg.notificationserver.event.NotificationCreatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Service for streaming new notifications to Server-Sent Events subscribers.
+ * 
+ * Each subscriber has a bounded buffer. Committed notifications are offered to
+ * every buffer without blocking, a subscriber whose buffer is full is dropped and
+ * is expected to reconnect with Last-Event-ID. Buffers are drained by a small
+ * writer pool, so idle subscribers hold no thread.
+ * 
+ * Event IDs are notification IDs. A subscriber that sends Last-Event-ID first
+ * receives the notifications it missed, oldest first. If it missed more than
+ * notification.stream.max-replay, a resync event carrying the last replayed ID
+ * follows the replay, and the client pages the rest with afterId on
+ * /notification/retrieve. A batch create is announced the same way, with a resync
+ * event instead of one event per notification.
+ */
+@Service
+public class NotificationStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationStreamService.class);
+
+    private static final String EVENT_NAME = "notification";
+
+    private static final String RESYNC_EVENT_NAME = "resync";
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    @Qualifier(NotificationStreamConfig.NOTIFICATION_STREAM_EXECUTOR)
+    private Executor notificationStreamExecutor;
+
+    @Value("${notification.host-url}")
+    private String hostUrl;
+
+    @Value("${notification.stream.buffer-size:64}")
+    private int bufferSize;
+
+    @Value("${notification.stream.timeout-millis:1800000}")
+    private long timeoutMillis;
+
+    @Value("${notification.stream.max-replay:1000}")
+    private int maxReplay;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Opens a stream for a new subscriber.
+     * 
+     * @param lastEventId The Last-Event-ID sent by the client, or null for live events only
+     * @return the emitter to return from the controller
+     */
+    public SseEmitter subscribe(Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(x -> subscribers.remove(subscriber));
+
+        // Registered before the replay query so nothing committed in between is missed,
+        // live events are held in the buffer until the replay has been written
+        subscribers.add(subscriber);
+        try {
+            if (lastEventId != null) {
+                replay(subscriber, lastEventId);
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Failed to replay notifications after ID {}", lastEventId, e);
+            drop(subscriber);
+            return emitter;
+        }
+        subscriber.release();
+        logger.debug("Stream subscriber added, {} subscribers", subscribers.size());
+        return emitter;
+    }
+
+    private void replay(Subscriber subscriber, long lastEventId) throws IOException {
+        subscriber.lastSentId = lastEventId;
+
+        NotificationPageDto<NotificationResponseDto> missed = notificationService.retrieveMissed(lastEventId, maxReplay);
+        subscriber.replayedIds = missed.getNotifications().stream().map(NotificationResponseDto::getId).collect(Collectors.toSet());
+        for (NotificationResponseDto notification : missed.getNotifications()) {
+            subscriber.emitter.send(toEvent(notification).build());
+            subscriber.lastSentId = notification.getId();
+        }
+
+        // The gap is too large to replay, the client pages the rest itself
+        if (missed.isHasMore()) {
+            logger.debug("Stream replay after ID {} exceeds {} notifications, sending resync", lastEventId, maxReplay);
+            subscriber.emitter.send(toResyncEvent(subscriber.lastSentId));
+        }
+    }
+
+    @TransactionalEventListener
+    public void onNotificationCreated(NotificationCreatedEvent event) {
+        StreamEvent streamEvent = new StreamEvent(event.getNotification().getId(), serialize(toEvent(event.getNotification())));
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(streamEvent);
+        }
+    }
+
+    @TransactionalEventListener
+    public void onNotificationBatchCreated(NotificationBatchCreatedEvent event) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.requestResync();
+        }
+    }
+
+    /**
+     * Sends a comment to every subscriber so idle connections are not closed by proxies.
+     */
+    @Scheduled(fixedDelayString = "${notification.stream.heartbeat-millis:30000}")
+    public void heartbeat() {
+        StreamEvent streamEvent = new StreamEvent(0, serialize(SseEmitter.event().comment("heartbeat")));
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(streamEvent);
+        }
+    }
+
+    private SseEmitter.SseEventBuilder toEvent(NotificationResponseDto notification) {
+        return SseEmitter.event()
+            .id(String.valueOf(notification.getId()))
+            .name(EVENT_NAME)
+            .data(NotificationResponseDto2.fromNotificationResponseDto(hostUrl, notification));
+    }
+
+    private static Set<ResponseBodyEmitter.DataWithMediaType> toResyncEvent(long afterId) {
+        return SseEmitter.event()
+            .name(RESYNC_EVENT_NAME)
+            .data(Map.of("afterId", afterId))
+            .build();
+    }
+
+    /**
+     * Builds an event once for all subscribers. SseEventBuilder.build() changes the builder
+     * on every call, so a builder must never be shared between sends.
+     */
+    private static Set<ResponseBodyEmitter.DataWithMediaType> serialize(SseEmitter.SseEventBuilder event) {
+        return Collections.unmodifiableSet(event.build());
+    }
+
+    private void drop(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.emitter.complete();
+        }
+    }
+
+    /**
+     * An event waiting in a subscriber's buffer, id is 0 for events that are not notifications.
+     * The data is built once and only read afterwards, so it is shared by every subscriber.
+     */
+    private record StreamEvent(long id, Set<ResponseBodyEmitter.DataWithMediaType> data) {
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final BlockingQueue<StreamEvent> buffer = new ArrayBlockingQueue<>(bufferSize);
+        // Set while a writer owns the emitter, starts set so live events wait for the replay
+        private final AtomicBoolean draining = new AtomicBoolean(true);
+        // Set when notifications were created that are not in the buffer
+        private final AtomicBoolean resync = new AtomicBoolean();
+        // Highest ID sent, the afterId of a resync
+        private volatile long lastSentId;
+        // IDs sent by the replay, which may also be in the buffer. Compared by ID rather than
+        // against lastSentId: concurrent creates commit out of ID order, so a live event may
+        // have a lower ID than one already sent and still be new
+        private volatile Set<Long> replayedIds = Set.of();
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void offer(StreamEvent event) {
+            if (!buffer.offer(event)) {
+                logger.info("Dropping slow stream subscriber, buffer of {} events is full", bufferSize);
+                drop(this);
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void requestResync() {
+            resync.set(true);
+            scheduleDrain();
+        }
+
+        private void release() {
+            draining.set(false);
+            if (!buffer.isEmpty() || resync.get()) {
+                scheduleDrain();
+            }
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                notificationStreamExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            boolean drained = false;
+            try {
+                do {
+                    if (resync.getAndSet(false)) {
+                        emitter.send(toResyncEvent(lastSentId));
+                    }
+                    StreamEvent event;
+                    while ((event = buffer.poll()) != null) {
+                        // Already delivered by the replay
+                        if (event.id() != 0 && replayedIds.contains(event.id())) {
+                            continue;
+                        }
+                        emitter.send(event.data());
+                        if (event.id() > lastSentId) {
+                            lastSentId = event.id();
+                        }
+                    }
+                    draining.set(false);
+                } while ((!buffer.isEmpty() || resync.get()) && draining.compareAndSet(false, true));
+                drained = true;
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Stream subscriber disconnected", e);
+                drop(this);
+            } finally {
+                // a failed send must not leave the subscriber owned by a writer that is gone
+                if (!drained) {
+                    draining.set(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package cx.ksg.notificationserver.service;
+
+import cx.ksg.notificationserver.dto.ImageDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto;
+import cx.ksg.notificationserver.event.ImageStatusChangedEvent;
+import cx.ksg.notificationserver.event.NotificationBatchCreatedEvent;
+import cx.ksg.notificationserver.event.NotificationCreatedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity, lock-free ring buffer of the most recent notifications.
+ * 
+ * A notification is stored in the slot {@code id & (capacity - 1)}, so the ring always
+ * covers the ID window (newestId - capacity, newestId]. A retrieve whose lastId falls in
+ * that window is answered from memory, anything older is a miss and goes to the database.
+ * Until the ring has been seeded from the database every lookup is a miss.
+ * 
+ * Images are stored as they were at creation, usually PENDING. When an image becomes
+ * READY or FAILED its notification is replaced with a copy carrying the new status, the
+ * stored DTOs themselves are never modified as readers may be serializing them.
+ * 
+ * The ring only sees notifications created on this node, so it is disabled by default.
+ * Only set notification.retrieve.cache-size above 0 when running a single node.
+ */
+@Component
+public class RecentNotificationCache implements InitializingBean {
+
+    @Value("${notification.retrieve.cache-size:0}")
+    private int cacheSize;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private AtomicReferenceArray<NotificationResponseDto> slots;
+
+    private int mask;
+
+    private final AtomicLong newestId = new AtomicLong();
+
+    // Lowest lastId the ring can answer for, ignoring the window; Long.MAX_VALUE until seeded
+    private final AtomicLong floorId = new AtomicLong(Long.MAX_VALUE);
+
+    private Counter hits;
+
+    private Counter misses;
+
+    /**
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return slots != null;
+    }
+
+    /**
+     * @return the number of notifications the ring holds
+     */
+    public int getCapacity() {
+        return slots == null ? 0 : slots.length();
+    }
+
+    /**
+     * Finds the notifications with an ID greater than lastId, newest first.
+     * 
+     * @param lastId The exclusive lower bound of the ID
+     * @param limit Maximum number of notifications to return
+     * @return the notifications, or null if lastId is outside of the cached window
+     */
+    public List<NotificationResponseDto> findAfter(long lastId, int limit) {
+        if (slots == null) {
+            return null;
+        }
+
+        long newest = newestId.get();
+        if (lastId < Math.max(floorId.get(), newest - slots.length())) {
+            misses.increment();
+            return null;
+        }
+
+        List<NotificationResponseDto> result = new ArrayList<>();
+        for (long id = newest; id > lastId && result.size() < limit; id--) {
+            NotificationResponseDto notification = slots.get((int) (id & mask));
+            // A different ID means this one was rolled back or has not committed yet
+            if (notification != null && notification.getId() == id) {
+                result.add(notification);
+            }
+        }
+
+        // Slots may have been overwritten while reading if the window moved past lastId
+        if (lastId < newestId.get() - slots.length()) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return result;
+    }
+
+    /**
+     * Finds the notifications with an ID greater than afterId, oldest first.
+     * 
+     * @param afterId The exclusive lower bound of the ID
+     * @param limit Maximum number of notifications to return
+     * @return the notifications, or null if afterId is outside of the cached window
+     */
+    public List<NotificationResponseDto> findAfterAscending(long afterId, int limit) {
+        if (slots == null) {
+            return null;
+        }
+
+        long newest = newestId.get();
+        if (afterId < Math.max(floorId.get(), newest - slots.length())) {
+            misses.increment();
+            return null;
+        }
+
+        List<NotificationResponseDto> result = new ArrayList<>();
+        for (long id = afterId + 1; id <= newest && result.size() < limit; id++) {
+            NotificationResponseDto notification = slots.get((int) (id & mask));
+            if (notification != null && notification.getId() == id) {
+                result.add(notification);
+            }
+        }
+
+        if (afterId < newestId.get() - slots.length()) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return result;
+    }
+
+    /**
+     * Stores a notification, unless its slot already holds a newer one.
+     * 
+     * @param notification The committed notification with its images
+     */
+    public void put(NotificationResponseDto notification) {
+        if (slots == null) {
+            return;
+        }
+
+        int index = (int) (notification.getId() & mask);
+        NotificationResponseDto current;
+        do {
+            current = slots.get(index);
+            if (current != null && current.getId() >= notification.getId()) {
+                return;
+            }
+        } while (!slots.compareAndSet(index, current, notification));
+        newestId.accumulateAndGet(notification.getId(), Math::max);
+    }
+
+    /**
+     * Fills the ring with the latest notifications from the database and starts serving lookups.
+     * 
+     * @param notifications All notifications in (maxId - capacity, maxId]
+     * @param maxId The highest notification ID at the time of the query
+     */
+    public void seed(List<NotificationResponseDto> notifications, long maxId) {
+        if (slots == null) {
+            return;
+        }
+
+        notifications.forEach(this::put);
+        newestId.accumulateAndGet(maxId, Math::max);
+        floorId.set(Math.max(0, maxId - slots.length()));
+    }
+
+    @TransactionalEventListener
+    public void onNotificationCreated(NotificationCreatedEvent event) {
+        put(event.getNotification());
+    }
+
+    /**
+     * Replaces the image in the cached notification, if the notification is still in the ring.
+     * Transcodes are scheduled after the notification's created event, so it is stored first.
+     */
+    @TransactionalEventListener
+    public void onImageStatusChanged(ImageStatusChangedEvent event) {
+        if (slots == null) {
+            return;
+        }
+
+        int index = (int) (event.getNotificationId() & mask);
+        NotificationResponseDto current;
+        NotificationResponseDto updated;
+        do {
+            current = slots.get(index);
+            if (current == null || current.getId() != event.getNotificationId()) {
+                return;
+            }
+            updated = withImage(current, event.getImage());
+        } while (!slots.compareAndSet(index, current, updated));
+    }
+
+    private static NotificationResponseDto withImage(NotificationResponseDto notification, ImageDto image) {
+        List<ImageDto> images = notification.getImages().stream()
+            .map(x -> x.getUuid().equals(image.getUuid()) ? image : x)
+            .toList();
+        return new NotificationResponseDto(notification.getId(), notification.getContent(), images,
+            notification.getSendOn(), notification.getFrom());
+    }
+
+    /**
+     * A batch is not stored in the ring, so lookups reaching back to any of its IDs go to
+     * the database. Lookups after the batch are served from the ring again.
+     */
+    @TransactionalEventListener
+    public void onNotificationBatchCreated(NotificationBatchCreatedEvent event) {
+        if (slots == null) {
+            return;
+        }
+        newestId.accumulateAndGet(event.getMaxId(), Math::max);
+        floorId.accumulateAndGet(event.getMaxId(), Math::max);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        hits = Counter.builder("notification.cache.requests").tag("result", "hit")
+            .description("Retrieve requests served by the recent notification cache")
+            .register(meterRegistry);
+        misses = Counter.builder("notification.cache.requests").tag("result", "miss")
+            .description("Retrieve requests served by the recent notification cache")
+            .register(meterRegistry);
+
+        if (cacheSize > 0) {
+            int capacity = Integer.highestOneBit(cacheSize - 1) << 1;
+            slots = new AtomicReferenceArray<>(Math.max(capacity, 1));
+            mask = slots.length() - 1;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package cx.ksg.notificationserver.service;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores image files in an S3 compatible object store, so several instances can serve
+ * the same images without a shared volume.
+ * 
+ * Files larger than one part are uploaded with a multipart upload, streamed from disk one
+ * part at a time. Range requests are passed on to the store as ranged GETs, or clients
+ * are redirected to a pre-signed URL and download from the store directly.
+ */
+@Component
+@ConditionalOnProperty(name = "notification.image.store.type", havingValue = "s3")
+public class S3ImageStore implements ImageStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3ImageStore.class);
+
+    // S3 rejects parts below 5 MiB, except for the last one
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    @Autowired
+    private S3Client s3Client;
+
+    @Autowired
+    private S3Presigner s3Presigner;
+
+    @Value("${notification.image.store.s3.bucket}")
+    private String bucket;
+
+    // Key prefix, e.g. "images/"
+    @Value("${notification.image.store.s3.prefix:}")
+    private String prefix;
+
+    @Value("${notification.image.store.s3.part-size-mb:8}")
+    private long partSizeMb;
+
+    @Override
+    public void put(String filename, Path source) throws IOException {
+        long size = Files.size(source);
+        long partSize = Math.max(MIN_PART_SIZE, partSizeMb * 1024 * 1024);
+        if (size <= partSize) {
+            s3Client.putObject(PutObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(getKey(filename))
+                    .contentType("image/webp")
+                    .build(),
+                RequestBody.fromFile(source));
+            return;
+        }
+        putMultipart(filename, source, size, partSize);
+    }
+
+    private void putMultipart(String filename, Path source, long size, long partSize) throws IOException {
+        String key = getKey(filename);
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType("image/webp")
+                .build())
+            .uploadId();
+
+        try {
+            List<CompletedPart> parts = new ArrayList<>();
+            int partNumber = 1;
+            for (long offset = 0; offset < size; offset += partSize, partNumber++) {
+                long partOffset = offset;
+                long length = Math.min(partSize, size - offset);
+                // only the part being sent is read, the file is never held in memory.
+                // The provider reopens the part if the SDK retries the request
+                String etag = s3Client.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength(length)
+                        .build(),
+                    RequestBody.fromContentProvider(() -> openPart(source, partOffset, length), length, "image/webp"))
+                    .eTag();
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(etag).build());
+            }
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+        } catch (RuntimeException e) {
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+            } catch (RuntimeException abortException) {
+                logger.warn("Failed to abort multipart upload: {}", key, abortException);
+            }
+            throw e;
+        }
+    }
+
+    private static InputStream openPart(Path source, long offset, long length) {
+        try {
+            FileChannel channel = FileChannel.open(source);
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream get(String filename) throws IOException {
+        try {
+            return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(getKey(filename))
+                .build());
+        } catch (NoSuchKeyException e) {
+            throw noSuchFile(filename, e);
+        }
+    }
+
+    @Override
+    public InputStream stream(String filename, long start, long count) throws IOException {
+        if (count <= 0) {
+            return InputStream.nullInputStream();
+        }
+        try {
+            return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(getKey(filename))
+                .range("bytes=" + start + "-" + (start + count - 1))
+                .build());
+        } catch (NoSuchKeyException e) {
+            throw noSuchFile(filename, e);
+        }
+    }
+
+    @Override
+    public boolean exists(String filename) {
+        try {
+            head(filename);
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long size(String filename) throws IOException {
+        try {
+            return head(filename);
+        } catch (NoSuchKeyException e) {
+            throw noSuchFile(filename, e);
+        }
+    }
+
+    private long head(String filename) {
+        return s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucket)
+                .key(getKey(filename))
+                .build())
+            .contentLength();
+    }
+
+    @Override
+    public void delete(String filename) {
+        s3Client.deleteObject(DeleteObjectRequest.builder()
+            .bucket(bucket)
+            .key(getKey(filename))
+            .build());
+    }
+
+    @Override
+    public String getLocation(String filename) {
+        return getKey(filename);
+    }
+
+    @Override
+    public String getSignedUrl(String filename, Duration expiry) {
+        // signed locally, no request is made to the store
+        return s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(expiry)
+                .getObjectRequest(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(getKey(filename))
+                    .build())
+                .build())
+            .url()
+            .toString();
+    }
+
+    private String getKey(String filename) {
+        return prefix + filename;
+    }
+
+    private static NoSuchFileException noSuchFile(String filename, NoSuchKeyException cause) {
+        NoSuchFileException exception = new NoSuchFileException(filename);
+        exception.initCause(cause);
+        return exception;
+    }
+}
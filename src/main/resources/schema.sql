@@ -4,7 +4,7 @@
 
 -- Create notifications table
 CREATE TABLE notifications (
-    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     content TEXT NOT NULL,
     send_on BIGINT NOT NULL,
     from_sender VARCHAR(255) NOT NULL,
@@ -13,26 +13,58 @@ CREATE TABLE notifications (
 
 -- Create image table
 CREATE TABLE image (
-    id INT AUTO_INCREMENT PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     uuid VARCHAR(36),
     path VARCHAR(500) NOT NULL,
     size BIGINT NOT NULL DEFAULT 0,
+    sha256 VARCHAR(64),
     content_type VARCHAR(100) NOT NULL,
+    variants VARCHAR(255),
+    status VARCHAR(16) NOT NULL DEFAULT 'PENDING',
     notification_id BIGINT NOT NULL,
     CONSTRAINT fk_image_notification_id 
         FOREIGN KEY (notification_id) REFERENCES notifications(id) ON DELETE CASCADE
 );
 
+-- Create image_blob table, one row per distinct uploaded content
+CREATE TABLE image_blob (
+    sha256 VARCHAR(64) PRIMARY KEY,
+    path VARCHAR(500) NOT NULL,
+    size BIGINT NOT NULL DEFAULT 0,
+    variants VARCHAR(255),
+    reference_count INT NOT NULL DEFAULT 0
+);
+
+-- Id generators, MySQL has no sequences so Hibernate keeps the next value in a table
+-- and allocates blocks of 50 ids per update (pooled optimizer), ids are assigned by
+-- Hibernate only, the id columns have no AUTO_INCREMENT.
+-- Pooled blocks keep ids in commit order only with a single writing node, see
+-- hibernate.id.optimizer.pooled.preferred in application.yaml.
+-- On an existing database start them above the current ids, e.g.
+-- INSERT INTO notifications_seq SELECT COALESCE(MAX(id), 0) + 1 FROM notifications;
+-- Image ids used to be INT, widen them with ALTER TABLE image MODIFY COLUMN id BIGINT NOT NULL;
+CREATE TABLE notifications_seq (
+    next_val BIGINT
+);
+INSERT INTO notifications_seq VALUES (1);
+
+CREATE TABLE image_seq (
+    next_val BIGINT
+);
+INSERT INTO image_seq VALUES (1);
+
 -- Create indexes for performance optimization
 
--- Index on send_on for chronological ordering (newest first)
-CREATE INDEX idx_notifications_send_on ON notifications(send_on DESC);
+-- Index on (send_on, id) for sendOn range pages, ordered by send_on and then id
+CREATE INDEX idx_notifications_send_on_id ON notifications(send_on, id);
 
 -- Index on created_at for administrative queries
 CREATE INDEX idx_notifications_created_at ON notifications(created_at);
 
--- Index on from_sender for sender-based queries
-CREATE INDEX idx_notifications_from_sender ON notifications(from_sender);
+-- Index on (from_sender, id) for sender pages, ordered by id
+-- Existing databases: DROP INDEX idx_notifications_send_on and idx_notifications_from_sender
+-- after creating these two, they cover the same queries
+CREATE INDEX idx_notifications_from_sender_id ON notifications(from_sender, id);
 
 -- Index on notification_id for efficient image lookups
 CREATE INDEX idx_image_notification_id ON image(notification_id);
@@ -49,25 +81,39 @@ CREATE INDEX idx_image_size ON image(size);
 -- Index on image uuid for UUID-based lookups (unique identifier)
 CREATE INDEX idx_image_uuid ON image(uuid);
 
+-- Index on image sha256 for content lookups
+CREATE INDEX idx_image_sha256 ON image(sha256);
+
 -- Composite index for notification content search (if full-text search is needed)
 -- CREATE FULLTEXT INDEX idx_notifications_content_fulltext ON notifications(content);
 
 -- Comments for table documentation
 ALTER TABLE notifications COMMENT = 'Stores notification messages with metadata';
 ALTER TABLE image COMMENT = 'Stores image files associated with notifications';
+ALTER TABLE image_blob COMMENT = 'Stores deduplicated image files shared by images with the same content';
 
 -- Column comments for better documentation
 ALTER TABLE notifications 
-    MODIFY COLUMN id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT 'Unique identifier for notification',
+    MODIFY COLUMN id BIGINT NOT NULL COMMENT 'Unique identifier for notification',
     MODIFY COLUMN content TEXT NOT NULL COMMENT 'Notification message content',
     MODIFY COLUMN send_on BIGINT NOT NULL COMMENT 'Unix timestamp for when to send notification',
     MODIFY COLUMN from_sender VARCHAR(255) NOT NULL COMMENT 'Sender identifier or name',
     MODIFY COLUMN created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP COMMENT 'Timestamp when notification was created';
 
 ALTER TABLE image 
-    MODIFY COLUMN id INT AUTO_INCREMENT PRIMARY KEY COMMENT 'Unique identifier for image',
+    MODIFY COLUMN id BIGINT NOT NULL COMMENT 'Unique identifier for image',
     MODIFY COLUMN uuid VARCHAR(36) COMMENT 'UUID for image identification',
     MODIFY COLUMN path VARCHAR(500) NOT NULL COMMENT 'File path or storage location',
     MODIFY COLUMN size BIGINT NOT NULL DEFAULT 0 COMMENT 'File size in bytes',
+    MODIFY COLUMN sha256 VARCHAR(64) COMMENT 'SHA-256 of the original upload, references image_blob',
     MODIFY COLUMN content_type VARCHAR(100) NOT NULL COMMENT 'MIME type of the image',
-    MODIFY COLUMN notification_id BIGINT NOT NULL COMMENT 'Foreign key to notifications table';
\ No newline at end of file
+    MODIFY COLUMN variants VARCHAR(255) COMMENT 'Comma separated widths of the resized variants',
+    MODIFY COLUMN status VARCHAR(16) NOT NULL DEFAULT 'PENDING' COMMENT 'Transcoding state: PENDING, READY or FAILED',
+    MODIFY COLUMN notification_id BIGINT NOT NULL COMMENT 'Foreign key to notifications table';
+
+ALTER TABLE image_blob
+    MODIFY COLUMN sha256 VARCHAR(64) NOT NULL COMMENT 'SHA-256 of the original upload',
+    MODIFY COLUMN path VARCHAR(500) NOT NULL COMMENT 'File path or storage location of the WebP file',
+    MODIFY COLUMN size BIGINT NOT NULL DEFAULT 0 COMMENT 'File size in bytes',
+    MODIFY COLUMN variants VARCHAR(255) COMMENT 'Comma separated widths of the resized variants',
+    MODIFY COLUMN reference_count INT NOT NULL DEFAULT 0 COMMENT 'Number of image rows using this file';
\ No newline at end of file
@@ -0,0 +1,114 @@
+package cx.ksg.notificationserver.controller;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Compares the two ways ImageController writes a stored file to a socket: the buffered
+ * copy through the heap, and FileChannel.transferTo as used by Tomcat's sendfile.
+ * Skipped unless benchmark is set:
+ *
+ * <pre>
+ * ./mvnw test -Dtest=ImageServingBenchmark -Dbenchmark=true
+ * </pre>
+ *
+ * Each mode sends the same file benchmark.iterations (2000) times over a loopback
+ * connection after a warm-up, and prints the throughput and the bytes allocated on the
+ * sending thread per file. The file size is benchmark.file-size (256 KiB).
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ImageServingBenchmark {
+
+    private final int iterations = Integer.getInteger("benchmark.iterations", 2000);
+
+    private final int fileSize = Integer.getInteger("benchmark.file-size", 256 * 1024);
+
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void bufferedCopyVersusTransferTo() throws Exception {
+        Path file = directory.resolve("image.webp");
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        Files.write(file, content);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            Thread sink = Thread.ofPlatform().daemon().start(() -> drain(server));
+            try (SocketChannel socket = SocketChannel.open(server.getLocalAddress())) {
+                OutputStream os = Channels.newOutputStream(socket);
+                Sender buffered = () -> {
+                    try (InputStream is = Files.newInputStream(file)) {
+                        IOUtils.copyLarge(is, os);
+                    }
+                };
+                Sender transferTo = () -> {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        long position = 0;
+                        while (position < fileSize) {
+                            position += channel.transferTo(position, fileSize - position, socket);
+                        }
+                    }
+                };
+
+                run(buffered, iterations / 10);
+                run(transferTo, iterations / 10);
+                report("buffered copy", run(buffered, iterations));
+                report("transferTo", run(transferTo, iterations));
+            }
+            sink.interrupt();
+        }
+    }
+
+    private long[] run(Sender sender, int count) throws IOException {
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            sender.send();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        return new long[] { count, elapsed, allocated };
+    }
+
+    private void report(String name, long[] result) {
+        double seconds = result[1] / 1e9;
+        System.out.printf("%-14s %8.1f MB/s %8.1f files/s %10d bytes allocated per file%n",
+            name, result[0] * (double) fileSize / seconds / (1024 * 1024), result[0] / seconds, result[2] / result[0]);
+    }
+
+    private static void drain(ServerSocketChannel server) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (SocketChannel socket = server.accept()) {
+            while (socket.read(buffer) >= 0) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // closed at the end of the run
+        }
+    }
+
+    @FunctionalInterface
+    private interface Sender {
+        void send() throws IOException;
+    }
+}
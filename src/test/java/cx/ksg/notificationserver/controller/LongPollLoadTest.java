@@ -0,0 +1,254 @@
+package cx.ksg.notificationserver.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Long-poll load test against a running server, for comparing the platform and virtual
+ * thread modes (VIRTUAL_THREADS_ENABLED). Skipped unless loadtest.base-url is set:
+ *
+ * <pre>
+ * ./mvnw test -Dtest=LongPollLoadTest -Dloadtest.base-url=http://localhost:8080 -Dloadtest.token=default-token
+ * </pre>
+ *
+ * Keeps loadtest.pollers (5000) clients long-polling /notification/retrieve with
+ * loadtest.wait-millis while a notification is created through /notification/create every
+ * loadtest.create-interval-millis, for loadtest.duration-seconds. Each create wakes the
+ * parked polls with that notification. Creates stop loadtest.settle-seconds before the end
+ * so the last ones can still be delivered.
+ *
+ * Fails if a poller did not receive every created notification. Prints the percentiles of
+ * the delivery latency, from sending the create to a poller receiving the notification,
+ * and the peak of the server's jvm.threads.live, sampled once a second.
+ */
+@EnabledIfSystemProperty(named = "loadtest.base-url", matches = ".+")
+class LongPollLoadTest {
+
+    private final String baseUrl = System.getProperty("loadtest.base-url");
+
+    private final String token = System.getProperty("loadtest.token", "default-token");
+
+    private final int pollers = Integer.getInteger("loadtest.pollers", 5000);
+
+    private final long waitMillis = Long.getLong("loadtest.wait-millis", 20000);
+
+    private final long createIntervalMillis = Long.getLong("loadtest.create-interval-millis", 1000);
+
+    private final long durationSeconds = Long.getLong("loadtest.duration-seconds", 60);
+
+    private final long settleSeconds = Long.getLong("loadtest.settle-seconds", 10);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpClient client = HttpClient.newBuilder()
+        .executor(Executors.newVirtualThreadPerTaskExecutor())
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+
+    // notification ID -> wall clock time its create was sent
+    private final Map<Long, Long> createdAt = new ConcurrentHashMap<>();
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    private final AtomicInteger polls = new AtomicInteger();
+
+    @Test
+    void longPollers() throws Exception {
+        long startId = latestId();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(durationSeconds);
+        long createDeadline = deadline - TimeUnit.SECONDS.toMillis(settleSeconds);
+        AtomicLong peakThreads = new AtomicLong();
+        byte[] image = tinyPng();
+
+        List<Map<Long, Long>> received = new ArrayList<>();
+        for (int i = 0; i < pollers; i++) {
+            received.add(new HashMap<>());
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Map<Long, Long> poller : received) {
+                executor.submit(() -> poll(startId, deadline, poller));
+            }
+            executor.submit(() -> create(createDeadline, image));
+            executor.submit(() -> sampleThreads(deadline, peakThreads));
+        }
+
+        Set<Long> created = createdAt.keySet();
+        List<Long> latencies = new ArrayList<>();
+        int incomplete = 0;
+        for (Map<Long, Long> poller : received) {
+            if (!poller.keySet().containsAll(created)) {
+                incomplete++;
+            }
+            poller.forEach((id, at) -> {
+                Long sentAt = createdAt.get(id);
+                if (sentAt != null) {
+                    latencies.add(at - sentAt);
+                }
+            });
+        }
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("pollers=%d created=%d polls=%d errors=%d delivered=%d incomplete pollers=%d p50=%dms p99=%dms max=%dms server jvm.threads.live peak=%d%n",
+            pollers, created.size(), polls.get(), errors.get(), sorted.length, incomplete,
+            percentile(sorted, 50), percentile(sorted, 99), sorted.length == 0 ? 0 : sorted[sorted.length - 1],
+            peakThreads.get());
+
+        assertTrue(!created.isEmpty(), "no notification was created");
+        assertEquals(0, incomplete, "pollers missed created notifications");
+        assertTrue(errors.get() <= polls.get() / 100, "more than 1% of the polls failed");
+    }
+
+    private void poll(long startId, long deadline, Map<Long, Long> received) {
+        long lastId = startId;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                String body = objectMapper.writeValueAsString(new RetrieveRequest(lastId, waitMillis));
+                HttpResponse<String> response = client.send(request("/notification/retrieve")
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofMillis(waitMillis + 30000))
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+                long now = System.currentTimeMillis();
+                polls.incrementAndGet();
+                if (response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                    continue;
+                }
+
+                for (JsonNode notification : objectMapper.readTree(response.body()).path("data")) {
+                    long id = notification.path("id").asLong();
+                    received.putIfAbsent(id, now);
+                    lastId = Math.max(lastId, id);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                polls.incrementAndGet();
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    private void create(long deadline, byte[] image) {
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                String boundary = UUID.randomUUID().toString();
+                long sentAt = System.currentTimeMillis();
+                HttpResponse<String> response = client.send(request("/notification/create")
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(multipart(boundary, image)))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+                JsonNode data = objectMapper.readTree(response.body()).path("data");
+                if (response.statusCode() == 200 && data.has("id")) {
+                    createdAt.put(data.path("id").asLong(), sentAt);
+                } else {
+                    errors.incrementAndGet();
+                }
+                Thread.sleep(createIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    // The create endpoint takes at least one image
+    private static byte[] multipart(String boundary, byte[] image) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String fields = "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"content\"\r\n\r\nload test\r\n"
+            + "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"from\"\r\n\r\nload-test\r\n"
+            + "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"images\"; filename=\"load-test.png\"\r\n"
+            + "Content-Type: image/png\r\n\r\n";
+        body.write(fields.getBytes(StandardCharsets.UTF_8));
+        body.write(image);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static byte[] tinyPng() throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", png);
+        return png.toByteArray();
+    }
+
+    private void sampleThreads(long deadline, AtomicLong peak) {
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                HttpResponse<String> response = client.send(request("/actuator/metrics/jvm.threads.live").GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    long threads = objectMapper.readTree(response.body()).path("measurements").path(0).path("value").asLong();
+                    peak.accumulateAndGet(threads, Math::max);
+                }
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // sampling is best effort
+            }
+        }
+    }
+
+    private long latestId() throws Exception {
+        String body = objectMapper.writeValueAsString(new RetrieveRequest(0, 0));
+        HttpResponse<String> response = client.send(request("/notification/retrieve")
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build(), HttpResponse.BodyHandlers.ofString());
+        long latest = 0;
+        for (JsonNode notification : objectMapper.readTree(response.body()).path("data")) {
+            latest = Math.max(latest, notification.path("id").asLong());
+        }
+        return latest;
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).header("Authorization", "Bearer " + token);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private record RetrieveRequest(long lastId, long waitMillis) {
+    }
+}
@@ -0,0 +1,124 @@
+package cx.ksg.notificationserver.service;
+
+import cx.ksg.notificationserver.dto.NotificationPageDto;
+import cx.ksg.notificationserver.dto.NotificationResponseDto;
+import cx.ksg.notificationserver.dto.NotificationRetrieveDto;
+import cx.ksg.notificationserver.entity.Image;
+import cx.ksg.notificationserver.entity.ImageStatus;
+import cx.ksg.notificationserver.entity.Notification;
+import cx.ksg.notificationserver.repository.ImageRepository;
+import cx.ksg.notificationserver.repository.NotificationRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.Validator;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a page of notifications and their images is read with two statements,
+ * one for the page and one for all of its images, however many notifications have images.
+ *
+ * Runs on H2, schema.sql is MySQL specific so the schema is generated from the entities.
+ * The recent notification cache is mocked to always miss, so every retrieve reaches the database.
+ */
+@DataJpaTest(properties = {
+    "spring.sql.init.mode=never",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import(NotificationService.class)
+class NotificationRetrieveStatementCountTest {
+
+    private static final int NOTIFICATIONS = 20;
+
+    private static final int IMAGES_PER_NOTIFICATION = 3;
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @MockBean
+    private RecentNotificationCache recentNotificationCache;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private GroupCommitExecutor groupCommitExecutor;
+
+    @MockBean
+    private Validator validator;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            Notification notification = notificationRepository.save(new Notification("content " + i, 1700000000L + i, "sender"));
+            for (int j = 0; j < IMAGES_PER_NOTIFICATION; j++) {
+                Image image = new Image();
+                image.setUuid(UUID.randomUUID().toString());
+                image.setPath(image.getUuid() + ".webp");
+                image.setContentType("image/webp");
+                image.setStatus(ImageStatus.READY);
+                image.setNotification(notification);
+                imageRepository.save(image);
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void retrievesNotificationsWithImagesInTwoStatements() {
+        Statistics statistics = statistics();
+
+        NotificationRetrieveDto request = new NotificationRetrieveDto();
+        request.setLastId(0);
+        List<NotificationResponseDto> responses = notificationService.retrieveNotifications(request);
+
+        assertImages(responses);
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void retrievesPageWithImagesInTwoStatements() {
+        Statistics statistics = statistics();
+
+        NotificationRetrieveDto request = new NotificationRetrieveDto();
+        request.setLimit(NOTIFICATIONS);
+        NotificationPageDto<NotificationResponseDto> page = notificationService.retrieveNotificationPage(NotificationCursor.after(0), request);
+
+        assertImages(page.getNotifications());
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    private Statistics statistics() {
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        return statistics;
+    }
+
+    private static void assertImages(List<NotificationResponseDto> responses) {
+        assertEquals(NOTIFICATIONS, responses.size());
+        responses.forEach(x -> assertEquals(IMAGES_PER_NOTIFICATION, x.getImages().size()));
+    }
+}